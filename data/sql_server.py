@@ -9,6 +9,7 @@ the methods below.
 """
 
 import socket
+import struct
 import sys
 import threading
 import sqlite3
@@ -19,16 +20,131 @@ DB_FILE = "stomp_server.db"              # DO NOT CHANGE!
 
 _db_lock = threading.Lock()
 
-def recv_null_terminated(sock: socket.socket) -> str:
-    data = b""
+# A binary message: this byte, a 4-byte big-endian length and the payload.
+# Used for prepared statements, see execute_binary.
+BINARY_MARKER = 0x01
+
+def recv_message(sock: socket.socket, pending: bytearray):
+    """Reads one message: a null-terminated SQL string, returned as str, or a
+    binary message, returned as the bytes of its payload. Returns "" when the
+    client closed the connection. Bytes past the message stay in `pending`."""
     while True:
-        chunk = sock.recv(1024)
+        if pending and pending[0] == BINARY_MARKER:
+            if len(pending) >= 5:
+                length = int.from_bytes(pending[1:5], "big")
+                if len(pending) >= 5 + length:
+                    payload = bytes(pending[5:5 + length])
+                    del pending[:5 + length]
+                    return payload
+        elif b"\0" in pending:
+            msg, _, rest = bytes(pending).partition(b"\0")
+            pending[:] = rest
+            return msg.decode("utf-8", errors="replace")
+        chunk = sock.recv(65536)
         if not chunk:
             return ""
-        data += chunk
-        if b"\0" in data:
-            msg, _ = data.split(b"\0", 1)
-            return msg.decode("utf-8", errors="replace")
+        pending += chunk
+
+
+class PreparedSession:
+    """The prepared statements of one client, run on the client's own sqlite
+    connection so each statement is compiled once and then only executed."""
+
+    def __init__(self):
+        self.conn = None
+        self.statements = {}
+
+    def connection(self) -> sqlite3.Connection:
+        if self.conn is None:
+            self.conn = sqlite3.connect(DB_FILE, timeout=10, check_same_thread=False,
+                                        cached_statements=256)
+            self.conn.execute("PRAGMA foreign_keys = ON;")
+        return self.conn
+
+    def close(self):
+        if self.conn is not None:
+            self.conn.close()
+
+
+def _read_value(payload: bytes, pos: int):
+    kind = payload[pos]
+    pos += 1
+    if kind == ord("S"):
+        (length,) = struct.unpack_from(">I", payload, pos)
+        pos += 4
+        return payload[pos:pos + length].decode("utf-8", errors="replace"), pos + length
+    if kind == ord("I"):
+        (value,) = struct.unpack_from(">q", payload, pos)
+        return value, pos + 8
+    return None, pos
+
+
+def _encode_field(value) -> str:
+    if value is None:
+        return "\\N"
+    return (str(value).replace("\\", "\\\\").replace("\x1e", "\\R")
+            .replace("\x1f", "\\F").replace("\0", "\\0"))
+
+
+def encode_rows(rows) -> str:
+    """"ROWS", then per row RS and its fields separated by US, escaped so that
+    no field can be mistaken for a separator."""
+    return "ROWS" + "".join("\x1e" + "\x1f".join(_encode_field(v) for v in row) for row in rows)
+
+
+def execute_binary(session: PreparedSession, payload: bytes) -> str:
+    """'P' prepares a statement under an id, 'B' runs groups of parameter sets
+    for prepared statements in one transaction, in order, and 'Q' runs a
+    prepared query. Decoding happens outside _db_lock, the sqlite calls hold it
+    like the text statements do, so a batch never runs into another writer's
+    transaction and waits out the busy timeout."""
+    try:
+        op = payload[0]
+        if op == ord("P"):
+            stmt_id, length = struct.unpack_from(">HI", payload, 1)
+            sql = payload[7:7 + length].decode("utf-8")
+            # compiling it once here reports a bad statement at prepare time
+            with _db_lock:
+                session.connection().execute("EXPLAIN " + sql, (None,) * sql.count("?"))
+            session.statements[stmt_id] = sql
+            return "done"
+        if op == ord("B"):
+            (groups,) = struct.unpack_from(">H", payload, 1)
+            pos = 3
+            batch = []
+            for _ in range(groups):
+                stmt_id, rows, params = struct.unpack_from(">HIH", payload, pos)
+                pos += 8
+                values = []
+                for _ in range(rows):
+                    row = []
+                    for _ in range(params):
+                        value, pos = _read_value(payload, pos)
+                        row.append(value)
+                    values.append(tuple(row))
+                if stmt_id not in session.statements:
+                    return f"ERROR statement {stmt_id} is not prepared"
+                batch.append((session.statements[stmt_id], values))
+            conn = session.connection()
+            with _db_lock, conn:
+                for sql, values in batch:
+                    conn.executemany(sql, values)
+            return "done"
+        if op == ord("Q"):
+            stmt_id, params = struct.unpack_from(">HH", payload, 1)
+            pos = 5
+            values = []
+            for _ in range(params):
+                value, pos = _read_value(payload, pos)
+                values.append(value)
+            if stmt_id not in session.statements:
+                return f"ERROR statement {stmt_id} is not prepared"
+            with _db_lock:
+                rows = session.connection().execute(session.statements[stmt_id], values).fetchall()
+            return encode_rows(rows)
+        return f"ERROR unknown binary message {op}"
+    except (sqlite3.Error, struct.error, UnicodeDecodeError, IndexError) as e:
+        return f"ERROR {e}"
 
 
 def init_database():
@@ -66,6 +182,10 @@ def init_database():
                 );
             """)
 
+            # the report reads history and uploads per user
+            cur.execute("CREATE INDEX IF NOT EXISTS login_history_username ON login_history(username);")
+            cur.execute("CREATE INDEX IF NOT EXISTS file_tracking_username ON file_tracking(username);")
+
             conn.commit()
     print(f"[{SERVER_NAME}] Database initialized.")
 
@@ -98,21 +218,42 @@ def execute_sql_query(sql_query: str) -> str:
             return f"ERROR {e}"
 
 
+def execute_sql_script(sql_script: str) -> str:
+    """Runs a batch of statements sent as one BEGIN ... COMMIT transaction."""
+    with _db_lock:
+        try:
+            with sqlite3.connect(DB_FILE) as conn:
+                conn.execute("PRAGMA foreign_keys = ON;")
+                conn.executescript(sql_script)
+                return "done"
+        except sqlite3.Error as e:
+            return f"ERROR {e}"
+
+
 def handle_client(client_socket: socket.socket, addr):
     print(f"[{SERVER_NAME}] Client connected from {addr}")
 
+    pending = bytearray()
+    session = PreparedSession()
     try:
         while True:
-            message = recv_null_terminated(client_socket)
+            message = recv_message(client_socket, pending)
             if message == "":
                 break
-            
+
+            if isinstance(message, bytes):
+                response = execute_binary(session, message)
+                client_socket.sendall(response.encode("utf-8") + b"\0")
+                continue
+
             sql = message.strip()
             print(f"[{SERVER_NAME}] Received:")
             print(sql)
 
             if sql.lower().startswith("select"):
                 response = execute_sql_query(sql)
+            elif sql.lower().startswith("begin"):
+                response = execute_sql_script(sql)
             else:
                 response = execute_sql_command(sql)
 
@@ -122,6 +263,7 @@ def handle_client(client_socket: socket.socket, addr):
     except Exception as e:
         print(f"[{SERVER_NAME}] Error handling client {addr}: {e}")
     finally:
+        session.close()
         try:
             client_socket.close()
         except Exception:
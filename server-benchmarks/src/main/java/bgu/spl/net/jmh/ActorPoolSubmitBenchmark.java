@@ -0,0 +1,105 @@
+package bgu.spl.net.jmh;
+
+import bgu.spl.net.srv.ActorMailbox;
+import bgu.spl.net.srv.ActorThreadPool;
+import bgu.spl.net.srv.MailboxActorPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Several producer threads submit small tasks to random actors, the way selector threads submit read tasks
+ * of their connections. Every invocation submits a batch and waits until the workers ran all of it,
+ * so the score is the throughput of submitting and running tasks, not just of queueing them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@Threads(4)
+public class ActorPoolSubmitBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @State(Scope.Benchmark)
+    public static class Pool {
+
+        @Param({"actor", "mailbox"})
+        public String pool;
+
+        @Param({"1000"})
+        public int actors;
+
+        @Param({"4"})
+        public int workers;
+
+        ActorThreadPool actorPool;
+        MailboxActorPool mailboxPool;
+        ActorMailbox[] mailboxes;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            if (pool.equals("actor")) {
+                actorPool = new ActorThreadPool(workers);
+            } else {
+                mailboxPool = new MailboxActorPool(workers);
+            }
+            mailboxes = new ActorMailbox[actors];
+            for (int i = 0; i < actors; i++) {
+                mailboxes[i] = new ActorMailbox();
+            }
+        }
+
+        void submit(ActorMailbox actor, Runnable task) {
+            if (actorPool != null) {
+                actorPool.submit(actor, task);
+            } else {
+                mailboxPool.submit(actor, task);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (actorPool != null) {
+                actorPool.shutdown();
+            } else {
+                mailboxPool.shutdown();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        final AtomicInteger done = new AtomicInteger();
+        final Runnable task = done::incrementAndGet;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void submit(Pool pool, Producer producer) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        producer.done.set(0);
+        for (int i = 0; i < BATCH; i++) {
+            pool.submit(pool.mailboxes[random.nextInt(pool.mailboxes.length)], producer.task);
+        }
+        while (producer.done.get() < BATCH) {
+            Thread.onSpinWait();
+        }
+    }
+}
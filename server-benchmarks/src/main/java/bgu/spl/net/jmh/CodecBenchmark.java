@@ -0,0 +1,78 @@
+package bgu.spl.net.jmh;
+
+import bgu.spl.net.impl.stomp.StompFrame;
+import bgu.spl.net.impl.stomp.StompMessageEncoderDecoder;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes the SEND frames and encodes the MESSAGE frames of a whole game, one frame per invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class CodecBenchmark {
+
+    private byte[][] encodedSends;
+    private ByteBuffer[] sendBuffers;
+    private StompFrame[] messages;
+    private StompMessageEncoderDecoder encdec;
+    private int next;
+
+    @Setup
+    public void setup() {
+        GameEvents events = GameEvents.load();
+        StompMessageEncoderDecoder encoder = new StompMessageEncoderDecoder();
+        List<StompFrame> sends = events.sendFrames();
+        encodedSends = new byte[sends.size()][];
+        sendBuffers = new ByteBuffer[sends.size()];
+        for (int i = 0; i < sends.size(); i++) {
+            encodedSends[i] = encoder.encode(sends.get(i));
+            sendBuffers[i] = ByteBuffer.wrap(encodedSends[i]);
+        }
+        messages = events.messageFrames().toArray(new StompFrame[0]);
+        encdec = new StompMessageEncoderDecoder();
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = i + 1 == encodedSends.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public StompFrame decodeByteByByte() {
+        byte[] frame = encodedSends[nextIndex()];
+        StompFrame decoded = null;
+        for (byte b : frame) {
+            decoded = encdec.decodeNextByte(b);
+        }
+        return decoded;
+    }
+
+    @Benchmark
+    public StompFrame decodeBulk() {
+        ByteBuffer frame = sendBuffers[nextIndex()];
+        frame.clear();
+        return encdec.decodeNextBytes(frame);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return encdec.encode(messages[nextIndex()]);
+    }
+}
@@ -0,0 +1,85 @@
+package bgu.spl.net.jmh;
+
+import bgu.spl.net.impl.stomp.StompFrame;
+import bgu.spl.net.srv.ConnectionHandler;
+import bgu.spl.net.srv.ConnectionsImpl;
+import bgu.spl.net.srv.SubscriptionRegistry;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Publishes one game report to a channel with a growing number of subscribers through
+ * {@link ConnectionsImpl#send(String, Object)}. The handlers only count what they are given,
+ * so the numbers are the cost of the fan-out itself, without any socket I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class FanOutBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int subscribers;
+
+    private ConnectionsImpl<StompFrame> connections;
+    private String destination;
+    private StompFrame[] reports;
+    private int next;
+
+    private static final class CountingHandler implements ConnectionHandler<StompFrame> {
+        long bytes;
+
+        @Override
+        public void send(StompFrame msg) {
+        }
+
+        @Override
+        public void sendEncoded(ByteBuffer[] parts) {
+            for (ByteBuffer part : parts) {
+                bytes += part.remaining();
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        GameEvents events = GameEvents.load();
+        destination = events.destination();
+        List<StompFrame> sends = events.sendFrames();
+        reports = sends.toArray(new StompFrame[0]);
+
+        connections = new ConnectionsImpl<>(new SubscriptionRegistry());
+        for (int id = 0; id < subscribers; id++) {
+            connections.addConnection(id, new CountingHandler());
+            connections.subscribe(id, destination, String.valueOf(id % 4));
+        }
+    }
+
+    @Benchmark
+    public void publish(Blackhole bh) {
+        StompFrame report = reports[next];
+        next = next + 1 == reports.length ? 0 : next + 1;
+        connections.send(destination, report);
+        bh.consume(report);
+    }
+}
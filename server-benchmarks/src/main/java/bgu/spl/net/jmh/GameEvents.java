@@ -0,0 +1,111 @@
+package bgu.spl.net.jmh;
+
+import bgu.spl.net.impl.stomp.StompFrame;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the frames the benchmarks work on from a game events file of the client,
+ * formatted the same way the C++ client reports them.
+ */
+public final class GameEvents {
+
+    public static final String EVENTS_FILE = System.getProperty("stomp.bench.events", "../client/data/events1.json");
+    public static final String USER = "bench";
+
+    private final String destination;
+    private final List<String> bodies = new ArrayList<>();
+
+    private GameEvents(String destination) {
+        this.destination = destination;
+    }
+
+    public static GameEvents load() {
+        Path path = Paths.get(EVENTS_FILE);
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            JsonObject game = JsonParser.parseReader(reader).getAsJsonObject();
+            String teamA = game.get("team a").getAsString();
+            String teamB = game.get("team b").getAsString();
+            GameEvents events = new GameEvents("/" + teamA + "_" + teamB);
+            for (JsonElement element : game.getAsJsonArray("events")) {
+                events.bodies.add(report(teamA, teamB, element.getAsJsonObject()));
+            }
+            return events;
+        } catch (IOException ex) {
+            throw new IllegalStateException("cannot read " + path.toAbsolutePath()
+                    + ", set -Dstomp.bench.events to the events file", ex);
+        }
+    }
+
+    public String destination() {
+        return destination;
+    }
+
+    public int size() {
+        return bodies.size();
+    }
+
+    /**
+     * @return the SEND frames of all events, in file order
+     */
+    public List<StompFrame> sendFrames() {
+        List<StompFrame> frames = new ArrayList<>(bodies.size());
+        for (String body : bodies) {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("destination", destination);
+            frames.add(new StompFrame("SEND", headers, body));
+        }
+        return frames;
+    }
+
+    /**
+     * @return the MESSAGE frames a subscriber receives for all events, in file order
+     */
+    public List<StompFrame> messageFrames() {
+        List<StompFrame> frames = new ArrayList<>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("destination", destination);
+            headers.put("subscription", "0");
+            headers.put("message-id", String.valueOf(i));
+            frames.add(new StompFrame("MESSAGE", headers, bodies.get(i)));
+        }
+        return frames;
+    }
+
+    private static String report(String teamA, String teamB, JsonObject event) {
+        StringBuilder body = new StringBuilder();
+        body.append("user:").append(USER).append('\n');
+        body.append("team a:").append(teamA).append('\n');
+        body.append("team b:").append(teamB).append('\n');
+        body.append("event name:").append(event.get("event name").getAsString()).append('\n');
+        body.append("time:").append(event.get("time").getAsInt()).append('\n');
+        appendUpdates(body, "general game updates", event);
+        appendUpdates(body, "team a updates", event);
+        appendUpdates(body, "team b updates", event);
+        body.append("description:\n").append(event.get("description").getAsString()).append('\n');
+        return body.toString();
+    }
+
+    private static void appendUpdates(StringBuilder body, String section, JsonObject event) {
+        body.append(section).append(":\n");
+        JsonObject updates = event.getAsJsonObject(section);
+        if (updates == null) {
+            return;
+        }
+        for (Map.Entry<String, JsonElement> update : updates.entrySet()) {
+            body.append(update.getKey()).append(':').append(update.getValue().getAsString()).append('\n');
+        }
+    }
+}
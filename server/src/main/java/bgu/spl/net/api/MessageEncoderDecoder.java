@@ -1,5 +1,7 @@
 package bgu.spl.net.api;
 
+import java.nio.ByteBuffer;
+
 public interface MessageEncoderDecoder<T> {
 
     /**
@@ -11,6 +13,26 @@ public interface MessageEncoderDecoder<T> {
      */
     T decodeNextByte(byte nextByte);
 
+    /**
+     * add the bytes of the given buffer to the decoding process, stopping as
+     * soon as a message is completed. implementations may override this to
+     * scan the buffer in bulk instead of byte by byte.
+     *
+     * @param buffer the bytes to consider, its position is advanced past the
+     * consumed bytes
+     * @return a message if the consumed bytes complete one or null if the
+     * buffer was exhausted first.
+     */
+    default T decodeNextBytes(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            T message = decodeNextByte(buffer.get());
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
     /**
      * encodes the given message to bytes array
      *
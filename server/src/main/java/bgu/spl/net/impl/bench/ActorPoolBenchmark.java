@@ -0,0 +1,103 @@
+package bgu.spl.net.impl.bench;
+
+import bgu.spl.net.srv.ActorMailbox;
+import bgu.spl.net.srv.ActorThreadPool;
+import bgu.spl.net.srv.MailboxActorPool;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compares the throughput of {@link ActorThreadPool} and {@link MailboxActorPool} when many producers
+ * submit small tasks to many actors, the way the reactor submits read tasks for its connections.
+ * Every run also checks that tasks of one actor never overlap and keep their submission order.
+ *
+ * Usage: ActorPoolBenchmark [workers] [producers] [actors] [tasksPerProducer] [rounds]
+ */
+public class ActorPoolBenchmark {
+
+    private static class Actor {
+        final ActorMailbox mailbox = new ActorMailbox();
+        final AtomicBoolean running = new AtomicBoolean(false);
+        final long[] lastSeq;
+        volatile boolean violated = false;
+
+        Actor(int producers) {
+            lastSeq = new long[producers];
+        }
+
+        void handle(int producer, long seq) {
+            if (!running.compareAndSet(false, true)) {
+                violated = true;
+            }
+            if (lastSeq[producer] >= seq) {
+                violated = true;
+            }
+            lastSeq[producer] = seq;
+            running.set(false);
+        }
+    }
+
+    private interface Submitter {
+        void submit(Actor actor, Runnable task);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int producers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int actors = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int tasks = args.length > 3 ? Integer.parseInt(args[3]) : 250000;
+        int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+        System.out.printf("workers=%d producers=%d actors=%d tasks/producer=%d%n", workers, producers, actors, tasks);
+        for (int round = 1; round <= rounds; round++) {
+            ActorThreadPool locked = new ActorThreadPool(workers);
+            double lockedRate = run(locked::submit, producers, actors, tasks);
+            locked.shutdown();
+
+            MailboxActorPool mailboxes = new MailboxActorPool(workers);
+            double mailboxRate = run((actor, task) -> mailboxes.submit(actor.mailbox, task), producers, actors, tasks);
+            mailboxes.shutdown();
+
+            System.out.printf("round %d: ActorThreadPool %,.0f tasks/s, MailboxActorPool %,.0f tasks/s (x%.2f)%n",
+                    round, lockedRate, mailboxRate, mailboxRate / lockedRate);
+        }
+    }
+
+    private static double run(Submitter submitter, int producers, int actorCount, int tasks) throws InterruptedException {
+        Actor[] actors = new Actor[actorCount];
+        for (int i = 0; i < actorCount; i++) {
+            actors[i] = new Actor(producers);
+        }
+        CountDownLatch done = new CountDownLatch(producers * tasks);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 1; i <= tasks; i++) {
+                    Actor actor = actors[random.nextInt(actors.length)];
+                    final long seq = i;
+                    submitter.submit(actor, () -> {
+                        actor.handle(producer, seq);
+                        done.countDown();
+                    });
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        for (Actor actor : actors) {
+            if (actor.violated) {
+                throw new IllegalStateException("actor tasks overlapped or ran out of order");
+            }
+        }
+        return producers * (double) tasks / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,153 @@
+package bgu.spl.net.impl.bench;
+
+import bgu.spl.net.impl.stomp.StompFrame;
+import bgu.spl.net.impl.stomp.StompMessageEncoderDecoder;
+import bgu.spl.net.impl.stomp.StompMessagingProtocolimpl;
+import bgu.spl.net.srv.MultiReactor;
+import bgu.spl.net.srv.Server;
+import bgu.spl.net.srv.VirtualThreads;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds many idle fan connections against each server mode and compares what it costs:
+ * the time to connect and subscribe all of them, the heap and platform threads of the process
+ * while they sit idle, and the time one report takes to reach every one of them.
+ * The clients run in the same process on virtual threads (platform threads before Java 21),
+ * so their share of the numbers is the same for every mode.
+ * Run each mode in a fresh JVM so that one mode's heap and file descriptors do not leak into the next one.
+ *
+ * Usage: IdleConnectionsBenchmark [clients] [port] [mode]   modes: tpc, vtpc, reactor, multireactor
+ */
+public class IdleConnectionsBenchmark {
+
+    private static final int MAX_CONCURRENT_CONNECTS = 256;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7800;
+        String mode = args.length > 2 ? args[2] : "vtpc";
+
+        run(mode, clients, port);
+        System.exit(0);
+    }
+
+    private static Server<StompFrame> server(String mode, int port) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        switch (mode) {
+            case "tpc":
+                return Server.threadPerClient(port, StompMessagingProtocolimpl::new, StompMessageEncoderDecoder::new);
+            case "vtpc":
+                return Server.virtualThreadPerClient(port, StompMessagingProtocolimpl::new, StompMessageEncoderDecoder::new);
+            case "reactor":
+                return Server.reactor(cores, port, StompMessagingProtocolimpl::new, StompMessageEncoderDecoder::new);
+            case "multireactor":
+                return Server.multiReactor(cores, cores, MultiReactor.Balance.ROUND_ROBIN, port,
+                        StompMessagingProtocolimpl::new, StompMessageEncoderDecoder::new);
+            default:
+                throw new IllegalArgumentException("unknown mode " + mode);
+        }
+    }
+
+    private static void run(String mode, int clients, int port) throws Exception {
+        Server<StompFrame> server = server(mode, port);
+        Thread serving = new Thread(server::serve, "bench-server-" + mode);
+        serving.start();
+        Thread.sleep(500);
+
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        CountDownLatch ready = new CountDownLatch(clients);
+        CountDownLatch delivered = new CountDownLatch(clients);
+        CountDownLatch release = new CountDownLatch(1);
+        Semaphore connecting = new Semaphore(MAX_CONCURRENT_CONNECTS);
+        AtomicInteger failures = new AtomicInteger();
+        AtomicLong lastDelivery = new AtomicLong();
+        SocketChannel[] publisher = new SocketChannel[1];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            final String login = "fan-" + mode + "-" + i;
+            final boolean isPublisher = i == 0;
+            VirtualThreads.startOrPlatform(() -> {
+                boolean counted = false;
+                try {
+                    connecting.acquire();
+                    try (SocketChannel chan = SocketChannel.open(address)) {
+                        write(chan, "CONNECT\naccept-version:1.2\nhost:bench\nlogin:" + login + "\npasscode:p\n\n\u0000");
+                        write(chan, "SUBSCRIBE\ndestination:/bench\nid:0\nreceipt:0\n\n\u0000");
+                        ByteBuffer buf = ByteBuffer.allocate(256);
+                        awaitFrames(chan, buf, 2); // CONNECTED and RECEIPT
+                        connecting.release();
+                        counted = true;
+                        if (isPublisher) {
+                            publisher[0] = chan;
+                        }
+                        ready.countDown();
+
+                        awaitFrames(chan, buf, 1); // the broadcast MESSAGE
+                        lastDelivery.accumulateAndGet(System.nanoTime(), Math::max);
+                        delivered.countDown();
+                        release.await();
+                    }
+                } catch (IOException | InterruptedException ex) {
+                    failures.incrementAndGet();
+                    if (!counted) {
+                        connecting.release();
+                        ready.countDown();
+                    }
+                    delivered.countDown();
+                }
+            });
+        }
+
+        ready.await(5, TimeUnit.MINUTES);
+        long connectMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.gc();
+        Thread.sleep(200);
+        Runtime rt = Runtime.getRuntime();
+        long heapMb = (rt.totalMemory() - rt.freeMemory()) >> 20;
+        int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        long publishAt = System.nanoTime();
+        write(publisher[0], "SEND\ndestination:/bench\n\nuser:bench\nevent name:goal\ndescription:\nbenchmark broadcast\n\u0000");
+        delivered.await(5, TimeUnit.MINUTES);
+        long fanoutMillis = (lastDelivery.get() - publishAt) / 1_000_000;
+
+        System.out.printf("%-12s clients=%d failures=%d connect+subscribe=%dms heap=%dMB platformThreads=%d broadcast=%dms%n",
+                mode, clients, failures.get(), connectMillis, heapMb, platformThreads, fanoutMillis);
+
+        release.countDown();
+        server.close();
+    }
+
+    private static void write(SocketChannel chan, String frame) throws IOException {
+        ByteBuffer out = ByteBuffer.wrap(frame.getBytes(StandardCharsets.UTF_8));
+        while (out.hasRemaining()) {
+            chan.write(out);
+        }
+    }
+
+    private static void awaitFrames(SocketChannel chan, ByteBuffer buf, int frames) throws IOException {
+        while (frames > 0) {
+            buf.clear();
+            if (chan.read(buf) < 0) {
+                throw new IOException("server closed the connection");
+            }
+            for (int i = 0; i < buf.position(); i++) {
+                if (buf.get(i) == 0) {
+                    frames--;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package bgu.spl.net.impl.data;
+
+import java.util.List;
+
+/**
+ * Where the server keeps its audit trail: registrations, logins and file uploads, and the queries of the report.
+ * Recording never waits for the store to write; queries see everything recorded before the last {@link #flush()}.
+ * Rows are string arrays with the columns named on each query, times formatted like SQLite's datetime('now').
+ * Row queries return one page, so a caller streams a large table page by page instead of holding all of it.
+ */
+public interface AuditStore {
+
+	void userRegistered(String username, String password);
+
+	void loggedIn(String username);
+
+	/**
+	 * Closes the user's newest open login.
+	 */
+	void loggedOut(String username);
+
+	void fileUploaded(String username, String filename, String gameChannel);
+
+	/**
+	 * Waits until everything recorded before the call is written.
+	 */
+	void flush();
+
+	/**
+	 * @return up to limit rows {username, registration time} from offset on, oldest registration first
+	 */
+	List<String[]> registeredUsers(int offset, int limit);
+
+	/**
+	 * @param username only this user's logins, or null for everyone's
+	 * @return up to limit rows {username, login time, logout time or null} from offset on,
+	 * by username and newest login first
+	 */
+	List<String[]> loginHistory(String username, int offset, int limit);
+
+	/**
+	 * @param username only this user's uploads, or null for everyone's
+	 * @param gameChannel only uploads to this channel, or null for all channels
+	 * @param after the key of the previous page, or null for the first page
+	 * @return up to limit rows {username, filename, upload time, game channel} after the key,
+	 * by username and newest upload first
+	 */
+	KeyedPage fileUploads(String username, String gameChannel, PageKey after, int limit);
+
+	/**
+	 * Adds the users, logins and uploads the store holds to the report's totals.
+	 */
+	void loadTotals(ReportEngine report);
+
+	/**
+	 * Writes what is pending and releases the store.
+	 */
+	void close();
+
+	/**
+	 * Where a page ended: the user of its last row and the position of that row among the user's rows,
+	 * as the store numbers them. The next page starts right after it, so a page costs its own rows however
+	 * deep it is. Only good for the query that returned it.
+	 */
+	final class PageKey {
+		final String username;
+		final long position;
+
+		PageKey(String username, long position) {
+			this.username = username;
+			this.position = position;
+		}
+	}
+
+	/**
+	 * One page of rows, and the key of the next page or null when this one is the last.
+	 */
+	final class KeyedPage {
+		public final List<String[]> rows;
+		public final PageKey next;
+
+		KeyedPage(List<String[]> rows, PageKey next) {
+			this.rows = rows;
+			this.next = next;
+		}
+	}
+}
@@ -1,318 +1,302 @@
-package bgu.spl.net.impl.data;
-
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-public class Database {
-	private final ConcurrentHashMap<String, User> userMap;
-	private final ConcurrentHashMap<Integer, User> connectionsIdMap;
-	private final String sqlHost;
-	private final int sqlPort;
-	private final ConcurrentHashMap<String, ConcurrentHashMap<Integer,Integer>> games;
-
-	private Database() {
-		userMap = new ConcurrentHashMap<>();
-		connectionsIdMap = new ConcurrentHashMap<>();
-		// SQL server connection details
-		this.sqlHost = "127.0.0.1";
-		this.sqlPort = 7778;
-
-	
-		games = new ConcurrentHashMap<>();
-	}
-
-	public static Database getInstance() {
-		return Instance.instance;
-	}
-
-	public void subscribeToGame(String gameName, Integer connectionId, Integer subId) {
-		games.computeIfAbsent(gameName, k -> new ConcurrentHashMap<>())
-				.put(connectionId, subId);
-	}
-
-	public void unsubscribeFromGame(int connectionId, int subscriptionId) {
-		for (Map<Integer, Integer> subscribers : games.values()) {
-			subscribers.remove(connectionId, subscriptionId);
-		}
-	}
-
-	public void unsubscribeFromAll(int connectionId) {
-		for (ConcurrentHashMap<Integer, Integer> channel : games.values()) {
-			channel.remove(connectionId);
-		}
-	}
-
-	public ConcurrentHashMap<Integer, Integer> getSubscribers(String channel) {
-		return games.get(channel);
-	}
-
-	public boolean isUserLoggedIn(int connectionId) {
-		User user = connectionsIdMap.get(connectionId);
-		return user != null && user.isLoggedIn();
-	}
-
-	/**
-	 * Execute SQL query and return result
-	 * @param sql SQL query string
-	 * @return Result string from SQL server
-	 */
-    private Socket sqlSocket;
-    private PrintWriter out;
-    private BufferedReader in;
-
-    /**
-     * Connect to SQL server if not connected
-     */
-    private void connect() {
-        try {
-            if (sqlSocket == null || sqlSocket.isClosed()) {
-                sqlSocket = new Socket(sqlHost, sqlPort); // Default system timeout
-                // We keep the socket open, so we don't set a short read timeout unless we want to handle "server hung" logic.
-                // For a persistent connection, infinite or long timeout is usually preferred, 
-                // but let's keep a reasonable one to detect failure.
-                sqlSocket.setSoTimeout(10000); 
-
-                out = new PrintWriter(sqlSocket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(sqlSocket.getInputStream()));
-            }
-        } catch (Exception e) {
-            System.err.println("Database Connection Error: " + e.getMessage());
-            sqlSocket = null; // Ensure null so we try again next time
-        }
-    }
-
-    /**
-     * Execute SQL query and return result using persistent connection
-     * @param sql SQL query string
-     * @return Result string from SQL server
-     */
-    private synchronized String executeSQL(String sql) {
-        // Ensure connection execution is serialized because we share the socket
-        try {
-            connect();
-            if (sqlSocket == null || out == null || in == null) {
-                return "ERROR: Could not connect to SQL DB";
-            }
-
-            out.println(sql + "\0");
-            out.flush();
-            
-            StringBuilder response = new StringBuilder();
-            int ch;
-            // Read until null char or stream end
-            while ((ch = in.read()) != -1 && ch != '\0') {
-                response.append((char) ch);
-            }
-            return response.toString();
-        } 
-        catch (Exception e) {
-            System.err.println("SQL Error: " + e.getMessage());
-            // If error, force reconnection next time as state might be bad
-            try { if (sqlSocket != null) sqlSocket.close(); } catch(Exception ignored){}
-            sqlSocket = null;
-            return "ERROR:" + e.getMessage();
-        }
-    }
-
-	/**
-	 * Escape SQL special characters to prevent SQL injection
-	 */
-	private String escapeSql(String str) {
-		if (str == null) return "";
-		return str.replace("'", "''");
-	}
-
-	public void addUser(User user) {
-		userMap.putIfAbsent(user.name, user);
-		connectionsIdMap.putIfAbsent(user.getConnectionId(), user);
-	}
-
-	public LoginStatus login(int connectionId, String username, String password) {
-		if (connectionsIdMap.containsKey(connectionId)) {
-			return LoginStatus.CLIENT_ALREADY_CONNECTED;
-		}
-		if (addNewUserCase(connectionId, username, password)) {
-			// Log new user registration in SQL
-			String sql = String.format(
-				"INSERT INTO users (username, password, registration_date) VALUES ('%s', '%s', datetime('now'))",
-				escapeSql(username), escapeSql(password)
-			);
-			executeSQL(sql);
-			
-			// Log login
-			logLogin(username);
-			return LoginStatus.ADDED_NEW_USER;
-		} else {
-			LoginStatus status = userExistsCase(connectionId, username, password);
-			if (status == LoginStatus.LOGGED_IN_SUCCESSFULLY) {
-				// Log successful login in SQL
-				logLogin(username);
-			}
-			return status;
-		}
-	}
-
-	private void logLogin(String username) {
-		String sql = String.format(
-			"INSERT INTO login_history (username, login_time) VALUES ('%s', datetime('now'))",
-			escapeSql(username)
-		);
-		executeSQL(sql);
-	}
-
-	private LoginStatus userExistsCase(int connectionId, String username, String password) {
-		User user = userMap.get(username);
-		synchronized (user) {
-			if (user.isLoggedIn()) {
-				return LoginStatus.ALREADY_LOGGED_IN;
-			} else if (!user.password.equals(password)) {
-				return LoginStatus.WRONG_PASSWORD;
-			} else {
-				user.login();
-				user.setConnectionId(connectionId);
-				connectionsIdMap.put(connectionId, user);
-				return LoginStatus.LOGGED_IN_SUCCESSFULLY;
-			}
-		}
-	}
-
-	private boolean addNewUserCase(int connectionId, String username, String password) {
-		if (!userMap.containsKey(username)) {
-			synchronized (userMap) {
-				if (!userMap.containsKey(username)) {
-					User user = new User(connectionId, username, password);
-					user.login();
-					addUser(user);
-					return true;
-				}
-			}
-		}
-		return false;
-	}
-
-	public void logout(int connectionsId) {
-		User user = connectionsIdMap.get(connectionsId);
-		if (user != null) {
-			// Log logout in SQL
-			String sql = String.format(
-				"UPDATE login_history SET logout_time=datetime('now') " +
-				"WHERE username='%s' AND logout_time IS NULL " +
-				"ORDER BY login_time DESC LIMIT 1",
-				escapeSql(user.name)
-			);
-			executeSQL(sql);
-			
-			user.logout();
-			connectionsIdMap.remove(connectionsId);
-		}
-	}
-
-	/**
-	 * Track file upload in SQL database
-	 * @param username User who uploaded the file
-	 * @param filename Name of the file
-	 * @param gameChannel Game channel the file was reported to
-	 */
-	public void trackFileUpload(String username, String filename, String gameChannel) {
-		String sql = String.format(
-			"INSERT INTO file_tracking (username, filename, upload_time, game_channel) " +
-			"VALUES ('%s', '%s', datetime('now'), '%s')",
-			escapeSql(username), escapeSql(filename), escapeSql(gameChannel)
-		);
-		executeSQL(sql);
-	}
-
-	/**
-	 * Generate and print server report using SQL queries
-	 */
-	public void printReport() {
-		System.out.println(repeat("=", 80));
-		System.out.println("SERVER REPORT - Generated at: " + java.time.LocalDateTime.now());
-		System.out.println(repeat("=", 80));
-		
-		// List all users
-		System.out.println("\n1. REGISTERED USERS:");
-		System.out.println(repeat("-", 80));
-		String usersSQL = "SELECT username, registration_date FROM users ORDER BY registration_date";
-		String usersResult = executeSQL(usersSQL);
-		if (usersResult.startsWith("SUCCESS")) {
-			String[] parts = usersResult.split("\\|");
-			if (parts.length > 1) {
-				for (int i = 1; i < parts.length; i++) {
-					System.out.println("   " + parts[i]);
-				}
-			} else {
-				System.out.println("   No users registered");
-			}
-		}
-		
-		// Login history for each user
-		System.out.println("\n2. LOGIN HISTORY:");
-		System.out.println(repeat("-", 80));
-		String loginSQL = "SELECT username, login_time, logout_time FROM login_history ORDER BY username, login_time DESC";
-		String loginResult = executeSQL(loginSQL);
-		if (loginResult.startsWith("SUCCESS")) {
-			String[] parts = loginResult.split("\\|");
-			if (parts.length > 1) {
-				String currentUser = "";
-				for (int i = 1; i < parts.length; i++) {
-					String[] fields = parts[i].replace("(", "").replace(")", "").replace("'", "").split(", ");
-					if (fields.length >= 3) {
-						if (!fields[0].equals(currentUser)) {
-							currentUser = fields[0];
-							System.out.println("\n   User: " + currentUser);
-						}
-						System.out.println("      Login:  " + fields[1]);
-						System.out.println("      Logout: " + (fields[2].equals("None") ? "Still logged in" : fields[2]));
-					}
-				}
-			} else {
-				System.out.println("   No login history");
-			}
-		}
-		
-		// File uploads for each user
-		System.out.println("\n3. FILE UPLOADS:");
-		System.out.println(repeat("-", 80));
-		String filesSQL = "SELECT username, filename, upload_time, game_channel FROM file_tracking ORDER BY username, upload_time DESC";
-		String filesResult = executeSQL(filesSQL);
-		if (filesResult.startsWith("SUCCESS")) {
-			String[] parts = filesResult.split("\\|");
-			if (parts.length > 1) {
-				String currentUser = "";
-				for (int i = 1; i < parts.length; i++) {
-					String[] fields = parts[i].replace("(", "").replace(")", "").replace("'", "").split(", ");
-					if (fields.length >= 4) {
-						if (!fields[0].equals(currentUser)) {
-							currentUser = fields[0];
-							System.out.println("\n   User: " + currentUser);
-						}
-						System.out.println("      File: " + fields[1]);
-						System.out.println("      Time: " + fields[2]);
-						System.out.println("      Game: " + fields[3]);
-						System.out.println();
-					}
-				}
-			} else {
-				System.out.println("   No files uploaded");
-			}
-		}
-		
-	System.out.println(repeat("=", 80));
-}
-
-private String repeat(String str, int times) {
-	StringBuilder sb = new StringBuilder();
-	for (int i = 0; i < times; i++) {
-		sb.append(str);
-	}
-	return sb.toString();
-}
-
-private static class Instance {
-	static Database instance = new Database();
+package bgu.spl.net.impl.data;
+
+import bgu.spl.net.srv.SubscriptionRegistry;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+public class Database {
+	private final SessionManager sessions;
+	private final SessionJournal journal;
+	private final SubscriptionRegistry games;
+	private final AuditStore audit;
+	private final ReportEngine report;
+	// rows read from the audit store at a time while printing the report
+	private static final int REPORT_PAGE = Integer.getInteger("stomp.report.pageSize", 500);
+
+	private Database() {
+		sessions = new SessionManager();
+		journal = openJournal(System.getProperty("stomp.wal.dir", "wal"), sessions);
+		games = openSubscriptions(System.getProperty("stomp.msgid.file", "message-ids.log"));
+		audit = openAuditStore(System.getProperty("stomp.audit", "sql"));
+		report = new ReportEngine();
+		audit.loadTotals(report);
+		// audit rows still queued when the server stops are written before the JVM exits
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+	}
+
+	/**
+	 * @param messageIdFile where message-ids are persisted, empty to start them over on every run
+	 */
+	private static SubscriptionRegistry openSubscriptions(String messageIdFile) {
+		if (!messageIdFile.isEmpty()) {
+			try {
+				return new SubscriptionRegistry(Paths.get(messageIdFile));
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Could not open " + messageIdFile + ", message-ids start over: " + e);
+			}
+		}
+		return new SubscriptionRegistry();
+	}
+
+	/**
+	 * @param dir where users and saved subscriptions are journaled, empty to keep them in memory only
+	 * @return the journal, or null if dir is empty
+	 * @throws IllegalStateException if the journal cannot be opened; the server does not run on without it,
+	 * as users restored only in part and changes no longer journaled would both be lost on the next restart
+	 */
+	private static SessionJournal openJournal(String dir, SessionManager sessions) {
+		if (dir.isEmpty()) {
+			return null;
+		}
+		try {
+			return SessionJournal.open(Paths.get(dir), sessions);
+		} catch (IOException | RuntimeException e) {
+			throw new IllegalStateException("Could not open the session journal in " + dir
+					+ "; fix or move it, or start with -Dstomp.wal.dir= to keep users in memory only", e);
+		}
+	}
+
+	/**
+	 * @param kind "sql" for the Python SQL server on 127.0.0.1:7778, "embedded" for a file kept by the server
+	 */
+	private static AuditStore openAuditStore(String kind) {
+		if (kind.equals("embedded")) {
+			String file = System.getProperty("stomp.audit.file", "audit.log");
+			try {
+				return new EmbeddedAuditStore(Paths.get(file));
+			} catch (IOException e) {
+				System.err.println("Could not open the audit file " + file + ", falling back to the SQL server: " + e);
+			}
+		} else if (!kind.equals("sql")) {
+			System.err.println("Unknown stomp.audit " + kind + ", using the SQL server");
+		}
+		return new SqlAuditStore("127.0.0.1", 7778);
+	}
+
+	public static Database getInstance() {
+		return Instance.instance;
+	}
+
+	/**
+	 * @return the subscription index shared with the server's connections
+	 */
+	public SubscriptionRegistry getSubscriptions() {
+		return games;
+	}
+
+	/**
+	 * Writes every pending audit record and closes the audit store.
+	 */
+	public void shutdown() {
+		if (journal != null) {
+			journal.close();
+		}
+		audit.close();
+	}
+
+	public boolean isUserLoggedIn(int connectionId) {
+		return sessions.getSession(connectionId) != null;
+	}
+
+	/**
+	 * Decides the login in memory; the audit store only queues its records, so no CONNECT waits for it to write.
+	 */
+	public LoginStatus login(int connectionId, String username, String password) {
+		LoginStatus status = sessions.login(connectionId, username, password);
+		if (status == LoginStatus.ADDED_NEW_USER) {
+			audit.userRegistered(username, password);
+			report.userRegistered(username);
+		}
+		if (status == LoginStatus.ADDED_NEW_USER || status == LoginStatus.LOGGED_IN_SUCCESSFULLY) {
+			audit.loggedIn(username);
+			report.loggedIn(username);
+		}
+		return status;
+	}
+
+	/**
+	 * Saves a subscription of the user logged in on the connection, see {@link #savedSubscriptions}.
+	 */
+	public void subscriptionSaved(int connectionId, int subscriptionId, String channel) {
+		sessions.saveSubscription(connectionId, subscriptionId, channel);
+	}
+
+	public void subscriptionDropped(int connectionId, int subscriptionId) {
+		sessions.dropSubscription(connectionId, subscriptionId);
+	}
+
+	/**
+	 * Forgets the subscriptions the user of the connection had in earlier sessions.
+	 */
+	public void clearSavedSubscriptions(int connectionId) {
+		sessions.clearSubscriptions(connectionId);
+	}
+
+	/**
+	 * @return subscriptionId -> channel of the subscriptions the user of the connection held, in this run or an earlier one
+	 */
+	public Map<Integer, String> savedSubscriptions(int connectionId) {
+		return sessions.savedSubscriptions(connectionId);
+	}
+
+	public void logout(int connectionsId) {
+		User user = sessions.logout(connectionsId);
+		if (user != null) {
+			audit.loggedOut(user.name);
+		}
+	}
+
+	/**
+	 * Track file upload in the audit store
+	 * @param username User who uploaded the file
+	 * @param filename Name of the file
+	 * @param gameChannel Game channel the file was reported to
+	 */
+	public void trackFileUpload(String username, String filename, String gameChannel) {
+		audit.fileUploaded(username, filename, gameChannel);
+		report.fileUploaded(username, gameChannel);
+	}
+
+	/**
+	 * @return the running totals of the report
+	 */
+	public ReportEngine getReport() {
+		return report;
+	}
+
+	/**
+	 * One page of the login history, see {@link AuditStore#loginHistory}.
+	 */
+	public List<String[]> loginHistory(String username, int offset, int limit) {
+		audit.flush();
+		return audit.loginHistory(username, offset, limit);
+	}
+
+	/**
+	 * One page of the file uploads, see {@link AuditStore#fileUploads}.
+	 */
+	public AuditStore.KeyedPage fileUploads(String username, String gameChannel, AuditStore.PageKey after, int limit) {
+		audit.flush();
+		return audit.fileUploads(username, gameChannel, after, limit);
+	}
+
+	/**
+	 * Generate and print the whole server report
+	 */
+	public void printReport() {
+		printReport(null, null);
+	}
+
+	/**
+	 * Generate and print server report: the totals from the report engine, then the rows from the audit store,
+	 * streamed one page at a time
+	 * @param username only this user, or null for everyone
+	 * @param gameChannel only uploads to this game channel, or null for all of them
+	 */
+	public void printReport(String username, String gameChannel) {
+		audit.flush();
+
+		System.out.println(repeat("=", 80));
+		System.out.println("SERVER REPORT - Generated at: " + java.time.LocalDateTime.now()
+				+ (username != null ? "  user: " + username : "")
+				+ (gameChannel != null ? "  game: " + gameChannel : ""));
+		System.out.println(repeat("=", 80));
+
+		System.out.println("\nSUMMARY:");
+		System.out.println(repeat("-", 80));
+		System.out.println("   Users: " + report.userCount() + "   Logged in now: " + sessions.loggedInCount()
+				+ "   Sessions: " + report.sessionCount() + "   Files: " + report.uploadCount());
+		report.uploadsByGame().forEach((game, count) -> {
+			if (gameChannel == null || gameChannel.equals(game)) {
+				System.out.println("   Game " + game + ": " + count + " files");
+			}
+		});
+		
+		// List all users
+		System.out.println("\n1. REGISTERED USERS:");
+		System.out.println(repeat("-", 80));
+		int printed = 0;
+		for (int offset = 0; ; offset += REPORT_PAGE) {
+			List<String[]> page = audit.registeredUsers(offset, REPORT_PAGE);
+			for (String[] user : page) {
+				if (username == null || username.equals(user[0])) {
+					ReportEngine.UserTotals totals = report.user(user[0]);
+					System.out.println("   " + user[0] + "  (registered " + user[1] + ")"
+							+ (totals != null ? "  sessions: " + totals.sessions() + "  files: " + totals.uploads() : ""));
+					printed++;
+				}
+			}
+			if (page.size() < REPORT_PAGE) {
+				break;
+			}
+		}
+		if (printed == 0) {
+			System.out.println("   No users registered");
+		}
+		
+		// Login history for each user
+		System.out.println("\n2. LOGIN HISTORY:");
+		System.out.println(repeat("-", 80));
+		String currentUser = "";
+		printed = 0;
+		for (int offset = 0; ; offset += REPORT_PAGE) {
+			List<String[]> page = audit.loginHistory(username, offset, REPORT_PAGE);
+			for (String[] login : page) {
+				if (!login[0].equals(currentUser)) {
+					currentUser = login[0];
+					System.out.println("\n   User: " + currentUser);
+				}
+				System.out.println("      Login:  " + login[1]);
+				System.out.println("      Logout: " + (login[2] == null ? "Still logged in" : login[2]));
+				printed++;
+			}
+			if (page.size() < REPORT_PAGE) {
+				break;
+			}
+		}
+		if (printed == 0) {
+			System.out.println("   No login history");
+		}
+		
+		// File uploads for each user
+		System.out.println("\n3. FILE UPLOADS:");
+		System.out.println(repeat("-", 80));
+		currentUser = "";
+		printed = 0;
+		for (AuditStore.PageKey after = null; ; ) {
+			AuditStore.KeyedPage page = audit.fileUploads(username, gameChannel, after, REPORT_PAGE);
+			for (String[] file : page.rows) {
+				if (!file[0].equals(currentUser)) {
+					currentUser = file[0];
+					System.out.println("\n   User: " + currentUser);
+				}
+				System.out.println("      File: " + file[1]);
+				System.out.println("      Time: " + file[2]);
+				System.out.println("      Game: " + file[3]);
+				System.out.println();
+				printed++;
+			}
+			if ((after = page.next) == null) {
+				break;
+			}
+		}
+		if (printed == 0) {
+			System.out.println("   No files uploaded");
+		}
+		
+	System.out.println(repeat("=", 80));
+}
+
+private String repeat(String str, int times) {
+	StringBuilder sb = new StringBuilder();
+	for (int i = 0; i < times; i++) {
+		sb.append(str);
+	}
+	return sb.toString();
+}
+
+private static class Instance {
+	static Database instance = new Database();
 }}
\ No newline at end of file
@@ -0,0 +1,404 @@
+package bgu.spl.net.impl.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An audit trail kept by the server itself, so it runs without the SQL server.
+ * Every fact is appended as one tab separated line to a file, and the rows are also kept in memory,
+ * indexed by username and by game channel, so the report queries never read the file and a page costs
+ * the rows it skips and returns, not a scan of everything. Pages of uploads are keyed by the user and the
+ * index of the row they ended at, so each one only costs its own rows.
+ * Nothing is ever dropped from memory: the heap grows with the audit trail, a few hundred bytes a row, for as
+ * long as the server runs. A server meant to keep a long trail should keep it in the SQL server instead.
+ * Every user's rows, every channel's index, the registrations and the file have locks of their own.
+ * The file is replayed into the indexes on start. Appends are buffered and written every stomp.audit.flushMillis.
+ */
+public final class EmbeddedAuditStore implements AuditStore {
+	private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+	private static final String REGISTERED = "R";
+	private static final String LOGIN = "I";
+	private static final String LOGOUT = "O";
+	private static final String UPLOAD = "F";
+
+	/** Collects the rows of one page while a query walks the indexes. */
+	private static final class Page {
+		final List<String[]> rows = new ArrayList<>();
+		final int limit;
+		int toSkip;
+
+		Page(int offset, int limit) {
+			this.toSkip = Math.max(0, offset);
+			this.limit = Math.max(0, limit);
+		}
+
+		boolean isFull() {
+			return rows.size() >= limit;
+		}
+
+		/**
+		 * @return true if all the count rows come before the page, and were skipped
+		 */
+		boolean skipAll(int count) {
+			if (toSkip >= count) {
+				toSkip -= count;
+				return true;
+			}
+			return isFull();
+		}
+
+		void offer(String[] row) {
+			if (toSkip > 0) {
+				toSkip--;
+			} else if (!isFull()) {
+				rows.add(row.clone());
+			}
+		}
+	}
+
+	/** The rows of one user, newest last, guarded by itself. */
+	private static final class UserRows {
+		final List<String[]> logins = new ArrayList<>();
+		final List<String[]> uploads = new ArrayList<>();
+	}
+
+	/** The uploads to one channel by username, each user's newest last, guarded by itself. */
+	private static final class ChannelUploads {
+		final TreeMap<String, List<String[]>> byUser = new TreeMap<>();
+	}
+
+	/** Collects a page of uploads user by user, each user's newest first, and the key of the row it ends at. */
+	private static final class UploadsPage {
+		final List<String[]> rows = new ArrayList<>();
+		final int limit;
+		final PageKey after;
+		String lastUser;
+		int lastIndex;
+
+		UploadsPage(PageKey after, int limit) {
+			this.after = after;
+			this.limit = Math.max(0, limit);
+		}
+
+		boolean isFull() {
+			return rows.size() >= limit;
+		}
+
+		/**
+		 * Takes the user's uploads newest first, from below the key when the previous page ended in this user.
+		 * Uploads are only ever appended, so the index of a row stays where the key saw it.
+		 */
+		void offer(String username, List<String[]> uploads) {
+			int from = uploads.size() - 1;
+			if (after != null && username.equals(after.username)) {
+				from = (int) Math.min(from, after.position - 1);
+			}
+			for (int i = from; i >= 0 && !isFull(); i--) {
+				rows.add(uploads.get(i).clone());
+				lastUser = username;
+				lastIndex = i;
+			}
+		}
+
+		KeyedPage done() {
+			return new KeyedPage(rows, rows.isEmpty() || !isFull() ? null : new PageKey(lastUser, lastIndex));
+		}
+	}
+
+	private final Writer out; // guarded by itself
+	private final List<String[]> registrations = new ArrayList<>(); // guarded by itself
+	private final ConcurrentSkipListMap<String, UserRows> byUser = new ConcurrentSkipListMap<>();
+	private final Map<String, ChannelUploads> byChannel = new ConcurrentHashMap<>();
+
+	private final ScheduledExecutorService flusher;
+
+	public EmbeddedAuditStore(Path file) throws IOException {
+		if (Files.exists(file)) {
+			try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					String[] fields = line.split("\t", -1);
+					for (int i = 0; i < fields.length; i++) {
+						fields[i] = unescape(fields[i]);
+					}
+					apply(fields);
+				}
+			}
+		} else if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+		out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		long flushMillis = Long.getLong("stomp.audit.flushMillis", 200);
+		flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "embedded-audit-flush");
+			t.setDaemon(true);
+			return t;
+		});
+		flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void userRegistered(String username, String password) {
+		record(REGISTERED, now(), username, password);
+	}
+
+	@Override
+	public void loggedIn(String username) {
+		record(LOGIN, now(), username);
+	}
+
+	@Override
+	public void loggedOut(String username) {
+		record(LOGOUT, now(), username);
+	}
+
+	@Override
+	public void fileUploaded(String username, String filename, String gameChannel) {
+		record(UPLOAD, now(), username, filename, gameChannel);
+	}
+
+	@Override
+	public void flush() {
+		synchronized (out) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public List<String[]> registeredUsers(int offset, int limit) {
+		Page page = new Page(0, limit);
+		synchronized (registrations) {
+			for (int i = Math.max(0, offset); i < registrations.size() && !page.isFull(); i++) {
+				page.offer(registrations.get(i));
+			}
+		}
+		return page.rows;
+	}
+
+	@Override
+	public List<String[]> loginHistory(String username, int offset, int limit) {
+		Page page = new Page(offset, limit);
+		for (UserRows user : usersMatching(username)) {
+			if (page.isFull()) {
+				break;
+			}
+			synchronized (user) {
+				if (page.skipAll(user.logins.size())) {
+					continue;
+				}
+				for (int i = user.logins.size() - 1; i >= 0 && !page.isFull(); i--) {
+					page.offer(user.logins.get(i));
+				}
+			}
+		}
+		return page.rows;
+	}
+
+	@Override
+	public KeyedPage fileUploads(String username, String gameChannel, PageKey after, int limit) {
+		UploadsPage page = new UploadsPage(after, limit);
+		if (gameChannel != null) {
+			ChannelUploads channel = byChannel.get(gameChannel);
+			if (channel == null) {
+				return page.done();
+			}
+			synchronized (channel) {
+				if (username != null) {
+					page.offer(username, channel.byUser.getOrDefault(username, List.of()));
+					return page.done();
+				}
+				Map<String, List<String[]>> users = after == null ? channel.byUser
+						: channel.byUser.tailMap(after.username, true);
+				for (Map.Entry<String, List<String[]>> user : users.entrySet()) {
+					if (page.isFull()) {
+						break;
+					}
+					page.offer(user.getKey(), user.getValue());
+				}
+			}
+			return page.done();
+		}
+		Map<String, UserRows> users = username != null ? usersNamed(username)
+				: after == null ? byUser : byUser.tailMap(after.username, true);
+		for (Map.Entry<String, UserRows> user : users.entrySet()) {
+			if (page.isFull()) {
+				break;
+			}
+			synchronized (user.getValue()) {
+				page.offer(user.getKey(), user.getValue().uploads);
+			}
+		}
+		return page.done();
+	}
+
+	@Override
+	public void loadTotals(ReportEngine report) {
+		synchronized (registrations) {
+			for (String[] registration : registrations) {
+				report.userRegistered(registration[0]);
+			}
+		}
+		byUser.forEach((username, user) -> {
+			synchronized (user) {
+				report.addSessions(username, user.logins.size());
+				for (String[] upload : user.uploads) {
+					report.addUploads(username, upload[3], 1);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		flusher.shutdownNow();
+		synchronized (out) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void record(String... fields) {
+		apply(fields);
+		synchronized (out) {
+			try {
+				for (int i = 0; i < fields.length; i++) {
+					if (i > 0) {
+						out.write('\t');
+					}
+					out.write(escape(fields[i]));
+				}
+				out.write('\n');
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Adds one fact to the indexes: {kind, time, username, ...}.
+	 */
+	private void apply(String[] fields) {
+		if (fields.length < 3) {
+			return;
+		}
+		String time = fields[1];
+		String username = fields[2];
+		switch (fields[0]) {
+			case REGISTERED:
+				synchronized (registrations) {
+					registrations.add(new String[] { username, time });
+				}
+				break;
+			case LOGIN: {
+				UserRows user = rowsOf(username);
+				synchronized (user) {
+					user.logins.add(new String[] { username, time, null });
+				}
+				break;
+			}
+			case LOGOUT: {
+				UserRows user = rowsOf(username);
+				synchronized (user) {
+					List<String[]> logins = user.logins;
+					for (int i = logins.size() - 1; i >= 0; i--) {
+						if (logins.get(i)[2] == null) {
+							logins.get(i)[2] = time;
+							break;
+						}
+					}
+				}
+				break;
+			}
+			case UPLOAD:
+				if (fields.length >= 5) {
+					String[] upload = { username, fields[3], time, fields[4] };
+					UserRows user = rowsOf(username);
+					synchronized (user) {
+						user.uploads.add(upload);
+					}
+					ChannelUploads channel = byChannel.computeIfAbsent(fields[4], k -> new ChannelUploads());
+					synchronized (channel) {
+						channel.byUser.computeIfAbsent(username, k -> new ArrayList<>()).add(upload);
+					}
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	private UserRows rowsOf(String username) {
+		return byUser.computeIfAbsent(username, k -> new UserRows());
+	}
+
+	private Map<String, UserRows> usersNamed(String username) {
+		UserRows user = byUser.get(username);
+		return user == null ? Map.of() : Map.of(username, user);
+	}
+
+	/**
+	 * @return the rows of the user, or of every user by username when username is null
+	 */
+	private Iterable<UserRows> usersMatching(String username) {
+		if (username == null) {
+			return byUser.values();
+		}
+		UserRows user = byUser.get(username);
+		return user == null ? List.of() : List.of(user);
+	}
+
+	private static String now() {
+		return LocalDateTime.now(ZoneOffset.UTC).format(TIME);
+	}
+
+	private static String escape(String field) {
+		if (field == null) {
+			return "";
+		}
+		return field.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+	}
+
+	private static String unescape(String field) {
+		if (field.indexOf('\\') < 0) {
+			return field;
+		}
+		StringBuilder sb = new StringBuilder(field.length());
+		for (int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			if (c == '\\' && i + 1 < field.length()) {
+				char next = field.charAt(++i);
+				sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,109 @@
+package bgu.spl.net.impl.data;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The totals of the server report, kept up to date as events happen instead of being counted from the audit rows.
+ * It is seeded from the {@link AuditStore} once on start, with the store's own aggregate queries, and after that
+ * every update is a hash lookup and an add. The rows behind the totals are paged from the store on demand.
+ */
+public class ReportEngine {
+
+	/** The counters of one user. */
+	public static final class UserTotals {
+		private final LongAdder sessions = new LongAdder();
+		private final LongAdder uploads = new LongAdder();
+		private final ConcurrentHashMap<String, LongAdder> uploadsByGame = new ConcurrentHashMap<>();
+
+		public long sessions() {
+			return sessions.sum();
+		}
+
+		public long uploads() {
+			return uploads.sum();
+		}
+
+		/**
+		 * @return game channel -> uploads, sorted by channel
+		 */
+		public Map<String, Long> uploadsByGame() {
+			return sums(uploadsByGame);
+		}
+	}
+
+	private final ConcurrentHashMap<String, UserTotals> users = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LongAdder> uploadsByGame = new ConcurrentHashMap<>();
+	private final LongAdder registered = new LongAdder();
+	private final LongAdder sessions = new LongAdder();
+	private final LongAdder uploads = new LongAdder();
+
+	public void userRegistered(String username) {
+		totals(username);
+		registered.increment();
+	}
+
+	public void loggedIn(String username) {
+		addSessions(username, 1);
+	}
+
+	public void fileUploaded(String username, String gameChannel) {
+		addUploads(username, gameChannel, 1);
+	}
+
+	public void addSessions(String username, long count) {
+		totals(username).sessions.add(count);
+		sessions.add(count);
+	}
+
+	public void addUploads(String username, String gameChannel, long count) {
+		UserTotals user = totals(username);
+		user.uploads.add(count);
+		if (gameChannel != null) {
+			user.uploadsByGame.computeIfAbsent(gameChannel, k -> new LongAdder()).add(count);
+			uploadsByGame.computeIfAbsent(gameChannel, k -> new LongAdder()).add(count);
+		}
+		uploads.add(count);
+	}
+
+	/**
+	 * @return the registered users
+	 */
+	public long userCount() {
+		return registered.sum();
+	}
+
+	public long sessionCount() {
+		return sessions.sum();
+	}
+
+	public long uploadCount() {
+		return uploads.sum();
+	}
+
+	/**
+	 * @return the totals of the user, or null if the user never registered, logged in or uploaded
+	 */
+	public UserTotals user(String username) {
+		return users.get(username);
+	}
+
+	/**
+	 * @return game channel -> uploads, sorted by channel
+	 */
+	public Map<String, Long> uploadsByGame() {
+		return sums(uploadsByGame);
+	}
+
+	private UserTotals totals(String username) {
+		return users.computeIfAbsent(username, k -> new UserTotals());
+	}
+
+	private static Map<String, Long> sums(Map<String, LongAdder> counters) {
+		Map<String, Long> sorted = new TreeMap<>();
+		counters.forEach((key, counter) -> sorted.put(key, counter.sum()));
+		return sorted;
+	}
+}
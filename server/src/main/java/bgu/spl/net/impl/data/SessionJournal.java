@@ -0,0 +1,296 @@
+package bgu.spl.net.impl.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Keeps the users and their saved subscriptions across restarts, without the SQL server.
+ * Every change is appended to a {@link WriteAheadLog}, forced to disk every stomp.wal.syncMillis, and every
+ * stomp.wal.snapshotSeconds the whole state is written to a snapshot file and the segments it covers are deleted.
+ * On start the snapshot is loaded and the segments after it are replayed.
+ * The snapshot before the last one is kept, with the segments after it, so a snapshot that fails its checksum
+ * is never applied: the previous one and the longer log tail are used instead, and if that fails too the
+ * journal does not open at all.
+ *
+ * The snapshot is taken while users keep changing: the log is rolled first and the users are read afterwards,
+ * so a change is either in the snapshot or in a segment that is kept, and replaying a change twice is harmless.
+ */
+public class SessionJournal implements AutoCloseable {
+	private static final byte USER_ADDED = 1;
+	private static final byte SUBSCRIBED = 2;
+	private static final byte UNSUBSCRIBED = 3;
+	private static final byte SUBSCRIPTIONS_CLEARED = 4;
+
+	private static final int SNAPSHOT_MAGIC = 0x534a3031; // "SJ01"
+	private static final String SNAPSHOT = "snapshot.dat";
+	private static final String PREVIOUS_SNAPSHOT = "snapshot.prev";
+
+	private final Path dir;
+	private final SessionManager sessions;
+	private final WriteAheadLog wal;
+	private final ScheduledExecutorService background;
+	private final AtomicLong appended = new AtomicLong();
+	private long snapshotAt = 0; // appended count covered by the last snapshot, background thread only
+	// the first segment after the newest snapshot, kept with all later ones while that snapshot is the fallback
+	private long lastSnapshotSegment; // background thread only
+
+	private SessionJournal(Path dir, SessionManager sessions, WriteAheadLog wal, long lastSnapshotSegment) {
+		this.dir = dir;
+		this.sessions = sessions;
+		this.wal = wal;
+		this.lastSnapshotSegment = lastSnapshotSegment;
+		this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "session-journal");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Restores the sessions from the directory and starts journaling their changes.
+	 */
+	public static SessionJournal open(Path dir, SessionManager sessions) throws IOException {
+		long start = System.nanoTime();
+		Files.createDirectories(dir);
+		long firstSegment = loadNewestSnapshot(dir, sessions);
+		int[] replayed = new int[1];
+		WriteAheadLog wal = WriteAheadLog.open(dir,
+				Integer.getInteger("stomp.wal.segmentBytes", 16 << 20),
+				firstSegment,
+				(type, payload) -> {
+					apply(sessions, type, payload);
+					replayed[0]++;
+				});
+		System.out.printf("Restored %d users from %s in %d ms (%d log records)%n",
+				sessions.userCount(), dir, (System.nanoTime() - start) / 1_000_000, replayed[0]);
+
+		SessionJournal journal = new SessionJournal(dir, sessions, wal, firstSegment);
+		// the replayed tail is folded into a fresh snapshot, so the next start does not replay it again
+		journal.appended.set(replayed[0]);
+		long syncMillis = Long.getLong("stomp.wal.syncMillis", 100);
+		long snapshotSeconds = Long.getLong("stomp.wal.snapshotSeconds", 300);
+		journal.background.scheduleWithFixedDelay(wal::force, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+		journal.background.scheduleWithFixedDelay(journal::snapshotIfChanged, 0, snapshotSeconds, TimeUnit.SECONDS);
+		sessions.attach(journal);
+		return journal;
+	}
+
+	/*package*/ void userAdded(User user) {
+		append(USER_ADDED, user.name, user.password);
+	}
+
+	/*package*/ void subscribed(User user, int subscriptionId, String channel) {
+		append(SUBSCRIBED, user.name, subscriptionId, channel);
+	}
+
+	/*package*/ void unsubscribed(User user, int subscriptionId) {
+		append(UNSUBSCRIBED, user.name, subscriptionId);
+	}
+
+	/*package*/ void subscriptionsCleared(User user) {
+		append(SUBSCRIPTIONS_CLEARED, user.name);
+	}
+
+	private void append(byte type, Object... fields) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			for (Object field : fields) {
+				if (field instanceof Integer) {
+					out.writeInt((Integer) field);
+				} else {
+					// plain UTF-8 behind a length, as readUTF below expects
+					byte[] utf8 = ((String) field).getBytes(StandardCharsets.UTF_8);
+					if (utf8.length > 0xffff) {
+						throw new IOException("journal field of " + utf8.length + " bytes");
+					}
+					out.writeShort(utf8.length);
+					out.write(utf8);
+				}
+			}
+			wal.append(type, bytes.toByteArray());
+			appended.incrementAndGet();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void apply(SessionManager sessions, byte type, ByteBuffer payload) {
+		String name = readUTF(payload);
+		switch (type) {
+			case USER_ADDED:
+				sessions.restoreUser(name, readUTF(payload));
+				break;
+			case SUBSCRIBED: {
+				User user = sessions.getUser(name);
+				int subscriptionId = payload.getInt();
+				if (user != null) {
+					user.saveSubscription(subscriptionId, readUTF(payload));
+				}
+				break;
+			}
+			case UNSUBSCRIBED: {
+				User user = sessions.getUser(name);
+				if (user != null) {
+					user.dropSubscription(payload.getInt());
+				}
+				break;
+			}
+			case SUBSCRIPTIONS_CLEARED: {
+				User user = sessions.getUser(name);
+				if (user != null) {
+					user.clearSubscriptions();
+				}
+				break;
+			}
+			default:
+				System.err.println("Unknown journal record type " + type);
+		}
+	}
+
+	private static String readUTF(ByteBuffer in) {
+		int length = in.getShort() & 0xffff;
+		String s = StandardCharsets.UTF_8.decode(in.slice(in.position(), length)).toString();
+		in.position(in.position() + length);
+		return s;
+	}
+
+	private void snapshotIfChanged() {
+		long count = appended.get();
+		if (count != snapshotAt) {
+			try {
+				snapshot();
+				snapshotAt = count;
+			} catch (IOException | RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Writes every user to a new snapshot and deletes the log segments it makes obsolete.
+	 */
+	private void snapshot() throws IOException {
+		long firstSegment = wal.roll();
+		Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+		CRC32 crc = new CRC32();
+		try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+				DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeLong(firstSegment);
+			for (User user : sessions.users()) {
+				Map<Integer, String> subscriptions;
+				synchronized (user) {
+					subscriptions = user.getSavedSubscriptions();
+				}
+				out.writeBoolean(true);
+				out.writeUTF(user.name);
+				out.writeUTF(user.password);
+				out.writeInt(subscriptions.size());
+				for (Map.Entry<Integer, String> subscription : subscriptions.entrySet()) {
+					out.writeInt(subscription.getKey());
+					out.writeUTF(subscription.getValue());
+				}
+			}
+			out.writeBoolean(false);
+			out.writeLong(crc.getValue());
+			out.flush();
+			file.getFD().sync();
+		}
+		Path current = dir.resolve(SNAPSHOT);
+		if (Files.exists(current)) {
+			Files.move(current, dir.resolve(PREVIOUS_SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		Files.move(tmp, current, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		// the segments after the previous snapshot stay, it is the fallback if the new one turns out damaged
+		wal.deleteBefore(lastSnapshotSegment);
+		lastSnapshotSegment = firstSegment;
+	}
+
+	/**
+	 * Restores the newest snapshot that passes its checksum. A crash between the two renames of
+	 * {@link #snapshot()} leaves only the previous one, which is fine as its segments are still there.
+	 * @return the first log segment the restored snapshot does not cover, 0 if there is no snapshot
+	 * @throws IOException if there are snapshots but none of them is whole
+	 */
+	private static long loadNewestSnapshot(Path dir, SessionManager sessions) throws IOException {
+		IOException failure = null;
+		for (String name : new String[] { SNAPSHOT, PREVIOUS_SNAPSHOT }) {
+			Path file = dir.resolve(name);
+			if (!Files.exists(file)) {
+				continue;
+			}
+			try {
+				// checked first, so a damaged snapshot leaves nothing behind in the sessions
+				readSnapshot(file, null);
+				return readSnapshot(file, sessions);
+			} catch (IOException e) {
+				System.err.println("Session snapshot " + file + " is damaged and not used: " + e);
+				failure = failure == null ? e : failure;
+			}
+		}
+		if (failure != null) {
+			throw new IOException("no session snapshot in " + dir + " is whole", failure);
+		}
+		return 0;
+	}
+
+	/**
+	 * @param sessions where the users go, or null to only check the file
+	 * @return the first log segment the snapshot does not cover
+	 */
+	private static long readSnapshot(Path file, SessionManager sessions) throws IOException {
+		CRC32 crc = new CRC32();
+		try (InputStream raw = Files.newInputStream(file);
+				DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(raw, 1 << 16), crc))) {
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException(file + " is not a session snapshot");
+			}
+			long firstSegment = in.readLong();
+			while (in.readBoolean()) {
+				String name = in.readUTF();
+				String password = in.readUTF();
+				User user = sessions != null ? sessions.restoreUser(name, password) : null;
+				for (int i = in.readInt(); i > 0; i--) {
+					int subscriptionId = in.readInt();
+					String channel = in.readUTF();
+					if (user != null) {
+						user.saveSubscription(subscriptionId, channel);
+					}
+				}
+			}
+			long expected = crc.getValue();
+			if (in.readLong() != expected) {
+				throw new IOException("bad checksum");
+			}
+			return firstSegment;
+		}
+	}
+
+	/**
+	 * Forces what was appended and stops the background work; the next start replays it.
+	 */
+	@Override
+	public void close() {
+		background.shutdownNow();
+		wal.close();
+	}
+}
@@ -0,0 +1,148 @@
+package bgu.spl.net.impl.data;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The users known to the server and the connection each one is logged in on.
+ * Nothing here takes a lock shared between users: a new user is published with putIfAbsent, and logging
+ * an existing user in or out is a compare-and-set on that user, so CONNECTs of different users never wait
+ * for each other and two CONNECTs of the same user cannot both win.
+ * Registrations and subscription changes are written to the {@link SessionJournal} while holding the user,
+ * so the journal sees the changes of one user in the order they were made.
+ */
+public class SessionManager {
+	private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, User> sessions = new ConcurrentHashMap<>();
+	private volatile SessionJournal journal;
+
+	/**
+	 * Starts writing changes to the journal, once it restored what it had.
+	 */
+	public void attach(SessionJournal journal) {
+		this.journal = journal;
+	}
+
+	public LoginStatus login(int connectionId, String username, String password) {
+		if (sessions.containsKey(connectionId)) {
+			return LoginStatus.CLIENT_ALREADY_CONNECTED;
+		}
+		User fresh = new User(connectionId, username, password);
+		User user;
+		synchronized (fresh) {
+			user = users.putIfAbsent(username, fresh);
+			if (user == null) {
+				SessionJournal journal = this.journal;
+				if (journal != null) {
+					journal.userAdded(fresh);
+				}
+			}
+		}
+		if (user == null) {
+			sessions.put(connectionId, fresh);
+			return LoginStatus.ADDED_NEW_USER;
+		}
+		if (!user.password.equals(password)) {
+			return LoginStatus.WRONG_PASSWORD;
+		}
+		if (!user.login(connectionId)) {
+			return LoginStatus.ALREADY_LOGGED_IN;
+		}
+		sessions.put(connectionId, user);
+		return LoginStatus.LOGGED_IN_SUCCESSFULLY;
+	}
+
+	/**
+	 * @return the user that was logged in on the connection, or null if there was none
+	 */
+	public User logout(int connectionId) {
+		User user = sessions.remove(connectionId);
+		if (user != null) {
+			user.logout(connectionId);
+		}
+		return user;
+	}
+
+	/**
+	 * @return the user logged in on the connection, or null
+	 */
+	public User getSession(int connectionId) {
+		return sessions.get(connectionId);
+	}
+
+	public int loggedInCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * Remembers a subscription of the user logged in on the connection, so a later session can restore it.
+	 */
+	public void saveSubscription(int connectionId, int subscriptionId, String channel) {
+		User user = sessions.get(connectionId);
+		if (user == null) {
+			return;
+		}
+		synchronized (user) {
+			user.saveSubscription(subscriptionId, channel);
+			SessionJournal journal = this.journal;
+			if (journal != null) {
+				journal.subscribed(user, subscriptionId, channel);
+			}
+		}
+	}
+
+	public void dropSubscription(int connectionId, int subscriptionId) {
+		User user = sessions.get(connectionId);
+		if (user == null) {
+			return;
+		}
+		synchronized (user) {
+			SessionJournal journal = this.journal;
+			if (user.dropSubscription(subscriptionId) && journal != null) {
+				journal.unsubscribed(user, subscriptionId);
+			}
+		}
+	}
+
+	public void clearSubscriptions(int connectionId) {
+		User user = sessions.get(connectionId);
+		if (user == null) {
+			return;
+		}
+		synchronized (user) {
+			SessionJournal journal = this.journal;
+			if (user.clearSubscriptions() && journal != null) {
+				journal.subscriptionsCleared(user);
+			}
+		}
+	}
+
+	/**
+	 * @return subscriptionId -> channel of the subscriptions saved for the user logged in on the connection
+	 */
+	public Map<Integer, String> savedSubscriptions(int connectionId) {
+		User user = sessions.get(connectionId);
+		return user == null ? Collections.emptyMap() : user.getSavedSubscriptions();
+	}
+
+	/**
+	 * @return the user, created logged out if it is not known; used when restoring, before any login
+	 */
+	public User restoreUser(String username, String password) {
+		return users.computeIfAbsent(username, name -> new User(name, password));
+	}
+
+	public User getUser(String username) {
+		return users.get(username);
+	}
+
+	public Collection<User> users() {
+		return users.values();
+	}
+
+	public int userCount() {
+		return users.size();
+	}
+}
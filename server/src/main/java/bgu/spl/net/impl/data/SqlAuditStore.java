@@ -0,0 +1,199 @@
+package bgu.spl.net.impl.data;
+
+import bgu.spl.net.srv.metrics.MetricsRegistry;
+import bgu.spl.net.srv.metrics.ServerMetrics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The audit trail kept by the Python SQL server: statements go through the write-behind {@link SqlAuditWriter}
+ * over a {@link SqlConnectionPool}, queries are prepared statements sent on the pool directly.
+ * Pages of uploads are keyed by username and id, the other pages are read with LIMIT and OFFSET, and the
+ * report totals a page of users at a time, paged by the users' rowid.
+ */
+public class SqlAuditStore implements AuditStore {
+	private static final int TOTALS_PAGE = Integer.getInteger("stomp.report.totalsPage", 10000);
+
+	// the writes are prepared statements, so recording builds no SQL and the server parses each one once
+	private static final SqlStatement REGISTER = new SqlStatement(1,
+			"INSERT INTO users (username, password, registration_date) VALUES (?, ?, datetime('now'))");
+	private static final SqlStatement LOGIN = new SqlStatement(2,
+			"INSERT INTO login_history (username, login_time) VALUES (?, datetime('now'))");
+	private static final SqlStatement LOGOUT = new SqlStatement(3,
+			"UPDATE login_history SET logout_time=datetime('now') WHERE id = " +
+			"(SELECT id FROM login_history WHERE username=? AND logout_time IS NULL ORDER BY login_time DESC, id DESC LIMIT 1)");
+	private static final SqlStatement UPLOAD = new SqlStatement(4,
+			"INSERT INTO file_tracking (username, filename, upload_time, game_channel) VALUES (?, ?, datetime('now'), ?)");
+
+	private static final SqlStatement USERS_PAGE = new SqlStatement(5,
+			"SELECT username, registration_date FROM users ORDER BY registration_date, username LIMIT ? OFFSET ?");
+	// one statement per combination of filters, so every one of them can use the username index
+	private static final SqlStatement[] LOGINS_PAGE = {
+			new SqlStatement(6, "SELECT username, login_time, logout_time FROM login_history " +
+					"ORDER BY username, login_time DESC, id DESC LIMIT ? OFFSET ?"),
+			new SqlStatement(7, "SELECT username, login_time, logout_time FROM login_history WHERE username = ? " +
+					"ORDER BY login_time DESC, id DESC LIMIT ? OFFSET ?")
+	};
+	// keyed by the username and id the previous page ended at, so a deep page reads only its own rows
+	private static final SqlStatement[] UPLOADS_PAGE = {
+			new SqlStatement(8, "SELECT username, filename, upload_time, game_channel, id FROM file_tracking " +
+					"WHERE username > ? OR (username = ? AND id < ?) ORDER BY username, id DESC LIMIT ?"),
+			new SqlStatement(9, "SELECT username, filename, upload_time, game_channel, id FROM file_tracking " +
+					"WHERE username = ? AND id < ? ORDER BY id DESC LIMIT ?"),
+			new SqlStatement(10, "SELECT username, filename, upload_time, game_channel, id FROM file_tracking " +
+					"WHERE game_channel = ? AND (username > ? OR (username = ? AND id < ?)) " +
+					"ORDER BY username, id DESC LIMIT ?"),
+			new SqlStatement(11, "SELECT username, filename, upload_time, game_channel, id FROM file_tracking " +
+					"WHERE username = ? AND game_channel = ? AND id < ? ORDER BY id DESC LIMIT ?")
+	};
+	private static final SqlStatement TOTALS_USERS = new SqlStatement(12,
+			"SELECT rowid, username FROM users WHERE rowid > ? ORDER BY rowid LIMIT ?");
+	private static final SqlStatement TOTALS_SESSIONS = new SqlStatement(13,
+			"SELECT u.username, COUNT(*) FROM users u JOIN login_history l ON l.username = u.username " +
+			"WHERE u.rowid BETWEEN ? AND ? GROUP BY u.rowid");
+	private static final SqlStatement TOTALS_UPLOADS = new SqlStatement(14,
+			"SELECT u.username, f.game_channel, COUNT(*) FROM users u JOIN file_tracking f ON f.username = u.username " +
+			"WHERE u.rowid BETWEEN ? AND ? GROUP BY u.rowid, f.game_channel");
+
+	private final SqlConnectionPool sqlPool;
+	private final SqlAuditWriter auditWriter;
+
+	public SqlAuditStore(String host, int port) {
+		sqlPool = new SqlConnectionPool(host, port,
+				Integer.getInteger("stomp.sql.pool", 4),
+				Long.getLong("stomp.sql.healthCheckMs", 5000));
+		auditWriter = new SqlAuditWriter(this::executeBatch,
+				Integer.getInteger("stomp.audit.capacity", 10000),
+				Integer.getInteger("stomp.audit.batch", 256));
+		// the backpressure of the write-behind queue, on the stats endpoint with the other metrics
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		metrics.gauge("audit.queue.depth", auditWriter::getQueueDepth);
+		metrics.gauge("audit.queue.maxDepth", auditWriter::getMaxQueueDepth);
+		metrics.gauge("audit.submits.blocked", auditWriter::getBlockedSubmits);
+		metrics.gauge("audit.written", auditWriter::getWritten);
+		metrics.gauge("audit.failed", auditWriter::getFailed);
+		metrics.gauge("audit.batches", auditWriter::getBatches);
+	}
+
+	@Override
+	public void userRegistered(String username, String password) {
+		auditWriter.submit(REGISTER.bind(username, password));
+	}
+
+	@Override
+	public void loggedIn(String username) {
+		auditWriter.submit(LOGIN.bind(username));
+	}
+
+	@Override
+	public void loggedOut(String username) {
+		auditWriter.submit(LOGOUT.bind(username));
+	}
+
+	@Override
+	public void fileUploaded(String username, String filename, String gameChannel) {
+		auditWriter.submit(UPLOAD.bind(username, filename, gameChannel));
+	}
+
+	@Override
+	public void flush() {
+		auditWriter.flush();
+	}
+
+	@Override
+	public List<String[]> registeredUsers(int offset, int limit) {
+		return query(USERS_PAGE.bind(limit, offset), 2);
+	}
+
+	@Override
+	public List<String[]> loginHistory(String username, int offset, int limit) {
+		if (username == null) {
+			return query(LOGINS_PAGE[0].bind(limit, offset), 3);
+		}
+		return query(LOGINS_PAGE[1].bind(username, limit, offset), 3);
+	}
+
+	/**
+	 * Uploads are numbered by their id, which grows with every insert, so newest first is the highest id first.
+	 */
+	@Override
+	public KeyedPage fileUploads(String username, String gameChannel, PageKey after, int limit) {
+		String afterUser = after == null ? "" : after.username;
+		long afterId = after == null ? Long.MAX_VALUE : after.position;
+		List<String[]> rows;
+		if (username == null && gameChannel == null) {
+			rows = query(UPLOADS_PAGE[0].bind(afterUser, afterUser, afterId, limit), 5);
+		} else if (gameChannel == null) {
+			rows = query(UPLOADS_PAGE[1].bind(username, afterId, limit), 5);
+		} else if (username == null) {
+			rows = query(UPLOADS_PAGE[2].bind(gameChannel, afterUser, afterUser, afterId, limit), 5);
+		} else {
+			rows = query(UPLOADS_PAGE[3].bind(username, gameChannel, afterId, limit), 5);
+		}
+		PageKey next = null;
+		if (!rows.isEmpty() && rows.size() >= limit) {
+			String[] last = rows.get(rows.size() - 1);
+			next = new PageKey(last[0], Long.parseLong(last[4]));
+		}
+		List<String[]> uploads = new ArrayList<>(rows.size());
+		for (String[] row : rows) {
+			uploads.add(Arrays.copyOf(row, 4));
+		}
+		return new KeyedPage(uploads, next);
+	}
+
+	/**
+	 * Loads a page of users by rowid, then the sessions and uploads of exactly that rowid range,
+	 * so every round moves the cursor forward whatever the names hold.
+	 */
+	@Override
+	public void loadTotals(ReportEngine report) {
+		long after = 0;
+		for (List<String[]> page; !(page = query(TOTALS_USERS.bind(after, TOTALS_PAGE), 2)).isEmpty(); ) {
+			long first = Long.parseLong(page.get(0)[0]);
+			long last = Long.parseLong(page.get(page.size() - 1)[0]);
+			for (String[] row : page) {
+				report.userRegistered(row[1]);
+			}
+			for (String[] row : query(TOTALS_SESSIONS.bind(first, last), 2)) {
+				report.addSessions(row[0], Long.parseLong(row[1]));
+			}
+			for (String[] row : query(TOTALS_UPLOADS.bind(first, last), 3)) {
+				report.addUploads(row[0], row[1], Long.parseLong(row[2]));
+			}
+			after = last;
+		}
+	}
+
+	@Override
+	public void close() {
+		auditWriter.close();
+		sqlPool.close();
+	}
+
+	/**
+	 * Runs a batch of bound statements in one transaction
+	 * @return Result string from SQL server
+	 */
+	private String executeBatch(List<SqlStatement.Bound> rows) {
+		long start = System.nanoTime();
+		try {
+			return sqlPool.executeBatch(rows);
+		} finally {
+			ServerMetrics.SQL_EXECUTE_TIME.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @return the rows of the query, or none if it failed
+	 */
+	private List<String[]> query(SqlStatement.Bound query, int columns) {
+		try {
+			return sqlPool.query(query, columns);
+		} catch (IllegalStateException e) {
+			System.err.println("SQL Error: " + e.getMessage());
+			return List.of();
+		}
+	}
+}
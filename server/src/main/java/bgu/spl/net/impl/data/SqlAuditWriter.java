@@ -0,0 +1,194 @@
+package bgu.spl.net.impl.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Write-behind pipeline for the audit statements sent to the SQL server.
+ * Callers enqueue bound INSERT/UPDATE statements and return immediately, a dedicated writer thread
+ * drains the queue and sends whatever has accumulated as one transaction per round trip.
+ * Statements are written in submission order.
+ */
+public class SqlAuditWriter {
+	private final BlockingQueue<SqlStatement.Bound> queue;
+	private final Function<List<SqlStatement.Bound>, String> executor;
+	private final int maxBatch;
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	// submitting takes no lock, only flush waits on flushLock and the writer only notifies while someone waits
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final Object flushLock = new Object();
+	private volatile int flushWaiters = 0; // changed under flushLock
+
+	private final LongAdder written = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder blockedSubmits = new LongAdder();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	/**
+	 * @param executor runs a batch of statements in one transaction on the SQL server and returns its reply
+	 * @param capacity the queue bound, submitters block once it is full
+	 * @param maxBatch the maximal number of statements sent in one transaction
+	 */
+	public SqlAuditWriter(Function<List<SqlStatement.Bound>, String> executor, int capacity, int maxBatch) {
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.executor = executor;
+		this.maxBatch = maxBatch;
+		this.writer = new Thread(this::writeLoop, "sql-audit-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Enqueues a statement. Blocks only when the queue is full, which is the backpressure
+	 * applied when the SQL server cannot keep up.
+	 */
+	public void submit(SqlStatement.Bound sql) {
+		submitted.incrementAndGet();
+		if (!queue.offer(sql)) {
+			blockedSubmits.increment();
+			try {
+				queue.put(sql);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				markCompleted(1);
+				failed.increment();
+				return;
+			}
+		}
+		int depth = queue.size();
+		if (depth > maxQueueDepth.get()) {
+			maxQueueDepth.accumulateAndGet(depth, Math::max);
+		}
+	}
+
+	/**
+	 * Waits until every statement submitted before this call was sent to the SQL server.
+	 */
+	public void flush() {
+		long target = submitted.get();
+		if (completed.get() >= target) {
+			return;
+		}
+		synchronized (flushLock) {
+			// counted before completed is read again, so the writer either sees the waiter or the wait is skipped
+			flushWaiters++;
+			try {
+				while (completed.get() < target) {
+					flushLock.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				flushWaiters--;
+			}
+		}
+	}
+
+	/**
+	 * Stops the writer after everything already queued has been written.
+	 */
+	public void close() {
+		running = false;
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	public long getWritten() {
+		return written.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	public long getBlockedSubmits() {
+		return blockedSubmits.sum();
+	}
+
+	private void writeLoop() {
+		List<SqlStatement.Bound> batch = new ArrayList<>(maxBatch);
+		while (running || !queue.isEmpty()) {
+			try {
+				SqlStatement.Bound first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, maxBatch - 1);
+				writeBatch(batch);
+			} catch (InterruptedException e) {
+				running = false;
+			} finally {
+				markCompleted(batch.size());
+				batch.clear();
+			}
+		}
+	}
+
+	private void writeBatch(List<SqlStatement.Bound> batch) {
+		batches.increment();
+		if (batch.size() == 1) {
+			writeOne(batch.get(0));
+			return;
+		}
+
+		if (isError(executor.apply(batch))) {
+			// one bad statement rolls back the whole transaction, so fall back to one by one
+			for (SqlStatement.Bound sql : batch) {
+				writeOne(sql);
+			}
+		} else {
+			written.add(batch.size());
+		}
+	}
+
+	private void writeOne(SqlStatement.Bound sql) {
+		if (isError(executor.apply(List.of(sql)))) {
+			failed.increment();
+		} else {
+			written.increment();
+		}
+	}
+
+	private static boolean isError(String result) {
+		return result == null || result.startsWith("ERROR");
+	}
+
+	private void markCompleted(int count) {
+		if (count == 0) {
+			return;
+		}
+		completed.addAndGet(count);
+		if (flushWaiters > 0) {
+			synchronized (flushLock) {
+				flushLock.notifyAll();
+			}
+		}
+	}
+}
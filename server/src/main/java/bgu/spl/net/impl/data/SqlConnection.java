@@ -0,0 +1,218 @@
+package bgu.spl.net.impl.data;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One pipelined connection to the SQL server.
+ * Statements are written as soon as they are submitted, without waiting for earlier replies.
+ * The server answers in order, so a reader thread completes the pending replies first-in first-out.
+ * A broken connection fails its pending replies and is reopened with exponential backoff.
+ */
+class SqlConnection {
+	private static final long MIN_BACKOFF_MS = 100;
+	private static final long MAX_BACKOFF_MS = 10000;
+
+	private final String host;
+	private final int port;
+	private final Queue<CompletableFuture<String>> pending = new ConcurrentLinkedQueue<>();
+	private volatile boolean healthy = false;
+	private volatile boolean used = false;
+	private SocketChannel channel; // guarded by this
+	// ids of the statements prepared on the current channel, guarded by this
+	private final Set<Integer> prepared = new HashSet<>();
+	private long backoffMs = MIN_BACKOFF_MS; // guarded by this
+	private long nextAttempt = 0; // guarded by this
+
+	SqlConnection(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	boolean isHealthy() {
+		return healthy;
+	}
+
+	/**
+	 * @return true once a statement was submitted, connections nobody used are left closed
+	 */
+	boolean isUsed() {
+		return used;
+	}
+
+	int inFlight() {
+		return pending.size();
+	}
+
+	/**
+	 * Opens the connection unless it is open already or its backoff has not expired yet.
+	 * @return true if the connection is open
+	 */
+	synchronized boolean connect() {
+		if (healthy) {
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		if (now < nextAttempt) {
+			return false;
+		}
+		try {
+			SocketChannel opened = SocketChannel.open(new InetSocketAddress(host, port));
+			opened.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel = opened;
+			prepared.clear();
+			healthy = true;
+			backoffMs = MIN_BACKOFF_MS;
+			Thread reader = new Thread(() -> readLoop(opened), "sql-reader");
+			reader.setDaemon(true);
+			reader.start();
+			return true;
+		} catch (IOException e) {
+			System.err.println("Database Connection Error: " + e.getMessage());
+			scheduleRetry(now);
+			return false;
+		}
+	}
+
+	CompletableFuture<String> submit(String sql) {
+		return send(ByteBuffer.wrap((sql + "\0").getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Sends the rows as one batch, first preparing the statements this connection has not seen yet.
+	 * @return the reply of the batch
+	 */
+	CompletableFuture<String> submitBatch(List<SqlStatement.Bound> rows) {
+		return submitPrepared(rows, SqlStatement.encodeBatch(rows));
+	}
+
+	/**
+	 * Runs a prepared query, preparing it first if this connection has not seen it yet.
+	 * @return the reply, rows as {@link SqlStatement#parseRows} reads them
+	 */
+	CompletableFuture<String> submitQuery(SqlStatement.Bound query) {
+		return submitPrepared(List.of(query), SqlStatement.encodeQuery(query));
+	}
+
+	private CompletableFuture<String> submitPrepared(List<SqlStatement.Bound> statements, byte[] message) {
+		used = true;
+		synchronized (this) {
+			if (!connect()) {
+				CompletableFuture<String> reply = new CompletableFuture<>();
+				reply.complete("ERROR: Could not connect to SQL DB");
+				return reply;
+			}
+			for (SqlStatement.Bound statement : statements) {
+				if (prepared.add(statement.statement.getId())) {
+					// its reply only keeps the pending queue in step, a failed prepare fails the message as well
+					send(ByteBuffer.wrap(statement.statement.encodePrepare()));
+				}
+			}
+			return send(ByteBuffer.wrap(message));
+		}
+	}
+
+	private CompletableFuture<String> send(ByteBuffer request) {
+		CompletableFuture<String> reply = new CompletableFuture<>();
+		used = true;
+		synchronized (this) {
+			if (!connect()) {
+				reply.complete("ERROR: Could not connect to SQL DB");
+				return reply;
+			}
+			// registering and writing under the same lock keeps the pending queue in wire order
+			pending.add(reply);
+			SocketChannel current = channel;
+			try {
+				while (request.hasRemaining()) {
+					current.write(request);
+				}
+			} catch (IOException e) {
+				fail(current, e.getMessage());
+			}
+		}
+		return reply;
+	}
+
+	/**
+	 * Drops the connection if it is still the given one, failing every pending reply.
+	 */
+	synchronized void fail(SocketChannel broken, String reason) {
+		if (!healthy || channel != broken) {
+			return;
+		}
+		System.err.println("SQL Error: " + reason);
+		healthy = false;
+		try {
+			broken.close();
+		} catch (IOException ignored) {
+		}
+		CompletableFuture<String> reply;
+		while ((reply = pending.poll()) != null) {
+			reply.complete("ERROR:" + reason);
+		}
+		scheduleRetry(System.currentTimeMillis());
+	}
+
+	synchronized void failCurrent(String reason) {
+		fail(channel, reason);
+	}
+
+	synchronized void close() {
+		if (channel != null) {
+			fail(channel, "connection closed");
+		}
+	}
+
+	private void scheduleRetry(long now) {
+		nextAttempt = now + backoffMs;
+		backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+	}
+
+	private void readLoop(SocketChannel source) {
+		ByteBuffer in = ByteBuffer.allocateDirect(1 << 13);
+		byte[] reply = new byte[1 << 10];
+		int len = 0;
+		try {
+			while (source.read(in) != -1) {
+				in.flip();
+				while (in.hasRemaining()) {
+					int start = in.position();
+					int end = start;
+					while (end < in.limit() && in.get(end) != '\u0000') {
+						end++;
+					}
+					int count = end - start;
+					if (len + count > reply.length) {
+						reply = Arrays.copyOf(reply, Math.max(reply.length * 2, len + count));
+					}
+					in.get(reply, len, count);
+					len += count;
+					if (end < in.limit()) {
+						in.get(); // the terminating NUL
+						CompletableFuture<String> next = pending.poll();
+						if (next != null) {
+							next.complete(new String(reply, 0, len, StandardCharsets.UTF_8));
+						}
+						len = 0;
+					}
+				}
+				in.clear();
+			}
+			fail(source, "SQL server closed the connection");
+		} catch (IOException e) {
+			fail(source, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package bgu.spl.net.impl.data;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of pipelined connections to the SQL server.
+ * Each statement goes to the healthy connection with the fewest replies in flight,
+ * and a background check pings idle connections and reopens broken ones.
+ */
+public class SqlConnectionPool {
+	private static final long REPLY_TIMEOUT_MS = 10000;
+
+	private final SqlConnection[] connections;
+	private final AtomicInteger next = new AtomicInteger();
+	private final ScheduledExecutorService healthCheck;
+
+	public SqlConnectionPool(String host, int port, int size, long healthCheckIntervalMs) {
+		connections = new SqlConnection[size];
+		for (int i = 0; i < size; i++) {
+			connections[i] = new SqlConnection(host, port);
+		}
+		healthCheck = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "sql-health-check");
+			t.setDaemon(true);
+			return t;
+		});
+		healthCheck.scheduleWithFixedDelay(this::checkHealth,
+				healthCheckIntervalMs, healthCheckIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs the rows as prepared statements in one transaction and waits for the reply.
+	 */
+	public String executeBatch(List<SqlStatement.Bound> rows) {
+		SqlConnection connection = pick();
+		return awaitOn(connection, connection.submitBatch(rows));
+	}
+
+	/**
+	 * Runs a prepared query and waits for its rows.
+	 * @throws IllegalStateException if the query failed
+	 */
+	public List<String[]> query(SqlStatement.Bound query, int columns) {
+		SqlConnection connection = pick();
+		String reply = awaitOn(connection, connection.submitQuery(query));
+		try {
+			return SqlStatement.parseRows(reply, columns);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalStateException("query failed: " + e.getMessage());
+		}
+	}
+
+	private String awaitOn(SqlConnection connection, CompletableFuture<String> reply) {
+		try {
+			return reply.get(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// the replies on a timed out connection can no longer be matched to their statements, so it is dropped
+			connection.failCurrent("timed out waiting for a reply");
+			return "ERROR: timed out waiting for a reply";
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return "ERROR: interrupted";
+		} catch (ExecutionException e) {
+			return "ERROR:" + e.getCause().getMessage();
+		}
+	}
+
+	public int healthyConnections() {
+		int healthy = 0;
+		for (SqlConnection connection : connections) {
+			if (connection.isHealthy()) {
+				healthy++;
+			}
+		}
+		return healthy;
+	}
+
+	public void close() {
+		healthCheck.shutdownNow();
+		for (SqlConnection connection : connections) {
+			connection.close();
+		}
+	}
+
+	private SqlConnection pick() {
+		int start = Math.floorMod(next.getAndIncrement(), connections.length);
+		SqlConnection best = null;
+		for (int i = 0; i < connections.length; i++) {
+			SqlConnection candidate = connections[(start + i) % connections.length];
+			if (candidate.isHealthy() && (best == null || candidate.inFlight() < best.inFlight())) {
+				best = candidate;
+			}
+		}
+		// with nothing healthy, the round robin choice tries to reconnect if its backoff allows it
+		return best != null ? best : connections[start];
+	}
+
+	private void checkHealth() {
+		for (SqlConnection connection : connections) {
+			if (!connection.isUsed()) {
+				continue;
+			}
+			if (!connection.isHealthy()) {
+				connection.connect();
+			} else if (connection.inFlight() == 0) {
+				CompletableFuture<String> pong = connection.submit("SELECT 1");
+				try {
+					if (pong.get(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS).startsWith("ERROR")) {
+						connection.failCurrent("health check failed");
+					}
+				} catch (TimeoutException | ExecutionException e) {
+					connection.failCurrent("health check failed");
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package bgu.spl.net.impl.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A statement with ? parameters that the SQL server prepares once per connection and then runs with parameter
+ * sets only, so neither side builds or parses SQL text per call.
+ *
+ * On the wire a binary message is 0x01, a 4 byte big-endian length and the payload, next to the usual
+ * NUL-terminated SQL text. Payloads, all numbers big-endian:
+ *   'P' u16 id, u32 length, SQL text                        prepares statement id on the connection
+ *   'B' u16 groups, then per group:                          runs the groups in one transaction, in order
+ *       u16 id, u32 rows, u16 params, rows * params values
+ *   'Q' u16 id, u16 params, params values                 runs prepared query id
+ *   value: 'S' u32 length, UTF-8 bytes | 'I' i64 | 'N' (null)
+ * Every message is answered like a text statement: "done" or "ERROR ...". A query is answered with "ROWS" and
+ * then, per row, RS (0x1e) and its fields separated by US (0x1f). In a field a backslash escapes the next
+ * character: \\ is a backslash, \R RS, \F US, \0 NUL, and a field of just \N is null.
+ */
+public final class SqlStatement {
+
+	/** A statement with its parameter values. */
+	public static final class Bound {
+		final SqlStatement statement;
+		final Object[] params;
+
+		private Bound(SqlStatement statement, Object[] params) {
+			this.statement = statement;
+			this.params = params;
+		}
+	}
+
+	/*package*/ static final byte BINARY = 0x01;
+	private static final byte PREPARE = 'P';
+	private static final byte BATCH = 'B';
+	private static final byte QUERY = 'Q';
+	private static final char ROW = 0x1e;
+	private static final char FIELD = 0x1f;
+
+	private final int id;
+	private final String sql;
+	private final int paramCount;
+
+	/**
+	 * @param id unique among the statements of the server, below 65536
+	 */
+	public SqlStatement(int id, String sql) {
+		this.id = id;
+		this.sql = sql;
+		this.paramCount = (int) sql.chars().filter(c -> c == '?').count();
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @param params String, Integer, Long or null, one per ? in order
+	 */
+	public Bound bind(Object... params) {
+		if (params.length != paramCount) {
+			throw new IllegalArgumentException(sql + " takes " + paramCount + " parameters, got " + params.length);
+		}
+		return new Bound(this, params);
+	}
+
+	/*package*/ byte[] encodePrepare() {
+		byte[] text = sql.getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + text.length);
+		try (DataOutputStream out = message(bytes)) {
+			out.writeByte(PREPARE);
+			out.writeShort(id);
+			out.writeInt(text.length);
+			out.write(text);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return withLength(bytes.toByteArray());
+	}
+
+	/**
+	 * Encodes the rows as one batch, consecutive rows of the same statement sharing a group.
+	 */
+	/*package*/ static byte[] encodeBatch(List<Bound> rows) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * rows.size() + 16);
+		try (DataOutputStream out = message(bytes)) {
+			out.writeByte(BATCH);
+			int groups = 0;
+			for (int i = 0; i < rows.size(); i++) {
+				if (i == 0 || rows.get(i).statement != rows.get(i - 1).statement) {
+					groups++;
+				}
+			}
+			out.writeShort(groups);
+			for (int i = 0, end; i < rows.size(); i = end) {
+				SqlStatement statement = rows.get(i).statement;
+				for (end = i; end < rows.size() && rows.get(end).statement == statement; end++) {
+				}
+				out.writeShort(statement.id);
+				out.writeInt(end - i);
+				out.writeShort(statement.paramCount);
+				for (int r = i; r < end; r++) {
+					for (Object param : rows.get(r).params) {
+						writeValue(out, param);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return withLength(bytes.toByteArray());
+	}
+
+	/*package*/ static byte[] encodeQuery(Bound query) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try (DataOutputStream out = message(bytes)) {
+			out.writeByte(QUERY);
+			out.writeShort(query.statement.id);
+			out.writeShort(query.statement.paramCount);
+			for (Object param : query.params) {
+				writeValue(out, param);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return withLength(bytes.toByteArray());
+	}
+
+	/**
+	 * Parses the reply of a query.
+	 * @return its rows, each with exactly the given number of fields
+	 * @throws IllegalArgumentException if the reply is an error or not a result of that shape
+	 */
+	/*package*/ static List<String[]> parseRows(String reply, int columns) {
+		if (reply == null || !reply.startsWith("ROWS")) {
+			throw new IllegalArgumentException(reply);
+		}
+		List<String[]> rows = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		String[] row = null;
+		int column = 0;
+		int fieldStart = 4;
+		for (int i = 4; i <= reply.length(); i++) {
+			char c = i < reply.length() ? reply.charAt(i) : ROW;
+			if (c == ROW || c == FIELD) {
+				if (row != null) {
+					if (column >= columns) {
+						throw new IllegalArgumentException("more than " + columns + " fields in a row");
+					}
+					// only a field that is nothing but \N is a null; the server doubles every backslash of a text
+					boolean isNull = i - fieldStart == 2 && reply.startsWith("\\N", fieldStart);
+					row[column++] = isNull ? null : field.toString();
+				}
+				field.setLength(0);
+				fieldStart = i + 1;
+				if (c == ROW) {
+					if (row != null) {
+						if (column != columns) {
+							throw new IllegalArgumentException(column + " fields in a row of " + columns);
+						}
+						rows.add(row);
+					}
+					row = i < reply.length() ? new String[columns] : null;
+					column = 0;
+				}
+			} else if (c == '\\' && i + 1 < reply.length()) {
+				char escaped = reply.charAt(++i);
+				switch (escaped) {
+					case 'R':
+						field.append(ROW);
+						break;
+					case 'F':
+						field.append(FIELD);
+						break;
+					case '0':
+						field.append('\0');
+						break;
+					default:
+						field.append(escaped);
+						break;
+				}
+			} else {
+				field.append(c);
+			}
+		}
+		return rows;
+	}
+
+	private static DataOutputStream message(ByteArrayOutputStream bytes) throws IOException {
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(BINARY);
+		out.writeInt(0); // the length, filled in by withLength
+		return out;
+	}
+
+	private static byte[] withLength(byte[] message) {
+		int length = message.length - 5;
+		message[1] = (byte) (length >>> 24);
+		message[2] = (byte) (length >>> 16);
+		message[3] = (byte) (length >>> 8);
+		message[4] = (byte) length;
+		return message;
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte('N');
+		} else if (value instanceof Integer || value instanceof Long) {
+			out.writeByte('I');
+			out.writeLong(((Number) value).longValue());
+		} else {
+			byte[] text = value.toString().getBytes(StandardCharsets.UTF_8);
+			out.writeByte('S');
+			out.writeInt(text.length);
+			out.write(text);
+		}
+	}
+}
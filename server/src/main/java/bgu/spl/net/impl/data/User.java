@@ -1,36 +1,85 @@
-package bgu.spl.net.impl.data;
-
-public class User {
-	public final String name;
-	public final String password;
-	private int connectionId;
-	private boolean isLoggedIn = false;
-
-	public User(int connectionId, String name, String password) {
-		this.connectionId = connectionId;
-		this.name = name;
-		this.password = password;
-	}
-
-	public boolean isLoggedIn() {
-		return isLoggedIn;
-	}
-
-	public void login() {
-		isLoggedIn = true;
-	}
-
-	public void logout() {
-		isLoggedIn = false;
-	}
-
-	public int getConnectionId() {
-		return connectionId;
-	}
-
-	public void setConnectionId(int connectionId) {
-		this.connectionId = connectionId;
-	}
-
-
-}
+package bgu.spl.net.impl.data;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class User {
+	private static final int LOGGED_OUT = -1;
+
+	public final String name;
+	public final String password;
+	// the connection the user is logged in on, or LOGGED_OUT; only ever changed by compare-and-set
+	private final AtomicInteger connectionId;
+	// subscriptionId -> channel of the subscriptions the user holds, kept across sessions; null while empty, guarded by this
+	private Map<Integer, String> savedSubscriptions;
+
+	/**
+	 * Creates a user already logged in on the connection.
+	 */
+	public User(int connectionId, String name, String password) {
+		this.connectionId = new AtomicInteger(connectionId);
+		this.name = name;
+		this.password = password;
+	}
+
+	/**
+	 * Creates a user that is not logged in, as restored from the journal.
+	 */
+	public User(String name, String password) {
+		this(LOGGED_OUT, name, password);
+	}
+
+	public boolean isLoggedIn() {
+		return connectionId.get() != LOGGED_OUT;
+	}
+
+	/**
+	 * @return false if the user is logged in on another connection
+	 */
+	public boolean login(int connectionId) {
+		return this.connectionId.compareAndSet(LOGGED_OUT, connectionId);
+	}
+
+	/**
+	 * Logs out only if the user is still logged in on this connection.
+	 */
+	public boolean logout(int connectionId) {
+		return this.connectionId.compareAndSet(connectionId, LOGGED_OUT);
+	}
+
+	public int getConnectionId() {
+		return connectionId.get();
+	}
+
+	public synchronized void saveSubscription(int subscriptionId, String channel) {
+		if (savedSubscriptions == null) {
+			savedSubscriptions = new HashMap<>(4);
+		}
+		savedSubscriptions.put(subscriptionId, channel);
+	}
+
+	/**
+	 * @return false if the user had no such subscription
+	 */
+	public synchronized boolean dropSubscription(int subscriptionId) {
+		return savedSubscriptions != null && savedSubscriptions.remove(subscriptionId) != null;
+	}
+
+	/**
+	 * @return false if there was nothing to clear
+	 */
+	public synchronized boolean clearSubscriptions() {
+		boolean had = savedSubscriptions != null && !savedSubscriptions.isEmpty();
+		savedSubscriptions = null;
+		return had;
+	}
+
+	/**
+	 * @return a copy of the saved subscriptions, subscriptionId -> channel
+	 */
+	public synchronized Map<Integer, String> getSavedSubscriptions() {
+		return savedSubscriptions == null ? Collections.emptyMap() : new HashMap<>(savedSubscriptions);
+	}
+}
@@ -0,0 +1,199 @@
+package bgu.spl.net.impl.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of small records in memory-mapped segment files named wal-NNNNNNNNNN.log.
+ * Each record is [int length][int crc32][byte type][payload], where length counts the type and the payload.
+ * An append is a copy into the mapped segment, the pages reach the disk when {@link #force()} is called or
+ * when the OS writes them back. A segment is never reopened for writing: the first zero length or bad checksum
+ * ends it, which is how a torn tail left by a crash is skipped on replay.
+ * Appends only hold the log's monitor for the copy; forcing takes a lock of its own and writes outside the monitor.
+ */
+public class WriteAheadLog implements AutoCloseable {
+
+	public interface RecordVisitor {
+		void visit(byte type, ByteBuffer payload);
+	}
+
+	private static final int HEADER_BYTES = 9;
+
+	private final Path dir;
+	private final int segmentBytes;
+	private final CRC32 crc = new CRC32(); // guarded by this
+	// held while pages are written to the disk, so force never blocks an append
+	private final Object flushLock = new Object();
+	private long segment; // guarded by this
+	private MappedByteBuffer current; // guarded by this
+	// the bytes appended and not forced yet: the end of them in current, and a full segment rolled away before
+	private int forcedUpTo = 0; // guarded by this
+	private MappedByteBuffer rolledAway; // guarded by this
+	private int rolledAwayEnd; // guarded by this
+
+	/**
+	 * @param firstSegment the index of the segment the next append goes to, past every segment that exists
+	 */
+	private WriteAheadLog(Path dir, int segmentBytes, long firstSegment) throws IOException {
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.segment = firstSegment;
+		this.current = map(firstSegment);
+	}
+
+	/**
+	 * Replays the records of every segment from firstSegment on, in order, then opens a new segment for appending.
+	 */
+	public static WriteAheadLog open(Path dir, int segmentBytes, long firstSegment, RecordVisitor visitor) throws IOException {
+		Files.createDirectories(dir);
+		long next = firstSegment;
+		for (long index : segments(dir)) {
+			if (index >= firstSegment) {
+				replay(dir.resolve(name(index)), visitor);
+			}
+			next = Math.max(next, index + 1);
+		}
+		return new WriteAheadLog(dir, segmentBytes, next);
+	}
+
+	public synchronized void append(byte type, byte[] payload) throws IOException {
+		if (HEADER_BYTES + payload.length > segmentBytes) {
+			throw new IOException("record of " + payload.length + " bytes does not fit a segment");
+		}
+		if (current.remaining() < HEADER_BYTES + payload.length) {
+			roll();
+		}
+		crc.reset();
+		crc.update(type);
+		crc.update(payload);
+		int start = current.position();
+		// the length goes in last, so a record is never seen before its bytes are
+		current.position(start + 4);
+		current.putInt((int) crc.getValue());
+		current.put(type);
+		current.put(payload);
+		current.putInt(start, payload.length + 1);
+	}
+
+	/**
+	 * Starts a new segment.
+	 * @return its index; every record appended before the call is in a segment with a lower index
+	 */
+	public synchronized long roll() throws IOException {
+		MappedByteBuffer next = map(segment + 1);
+		if (current.position() > forcedUpTo) {
+			// the next force writes it; only when a whole segment filled since the last one is the older one forced here
+			if (rolledAway != null) {
+				rolledAway.force(0, rolledAwayEnd);
+			}
+			rolledAway = current;
+			rolledAwayEnd = current.position();
+		}
+		segment++;
+		current = next;
+		forcedUpTo = 0;
+		return segment;
+	}
+
+	/**
+	 * Writes the records appended so far to the disk. Appends go on meanwhile, they are left for the next call.
+	 */
+	public void force() {
+		synchronized (flushLock) {
+			MappedByteBuffer previous;
+			int previousEnd;
+			MappedByteBuffer segmentToForce;
+			int from;
+			int to;
+			synchronized (this) {
+				previous = rolledAway;
+				previousEnd = rolledAwayEnd;
+				rolledAway = null;
+				segmentToForce = current;
+				from = forcedUpTo;
+				to = current.position();
+				forcedUpTo = to;
+			}
+			if (previous != null) {
+				previous.force(0, previousEnd);
+			}
+			if (to > from) {
+				segmentToForce.force(from, to - from);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the segments that a snapshot made obsolete.
+	 */
+	public void deleteBefore(long firstKept) throws IOException {
+		for (long index : segments(dir)) {
+			if (index < firstKept) {
+				Files.deleteIfExists(dir.resolve(name(index)));
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		force();
+	}
+
+	private MappedByteBuffer map(long index) throws IOException {
+		try (FileChannel file = FileChannel.open(dir.resolve(name(index)),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// the mapping outlives the channel, and the file is zero past the last record
+			return file.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		}
+	}
+
+	private static void replay(Path file, RecordVisitor visitor) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			CRC32 crc = new CRC32();
+			while (in.remaining() >= HEADER_BYTES) {
+				int length = in.getInt();
+				int checksum = in.getInt();
+				if (length <= 0 || length > in.remaining()) {
+					return;
+				}
+				ByteBuffer record = in.slice(in.position(), length);
+				crc.reset();
+				crc.update(record.duplicate());
+				if ((int) crc.getValue() != checksum) {
+					System.err.println("WAL " + file.getFileName() + ": bad checksum at " + (in.position() - 8) + ", the rest is skipped");
+					return;
+				}
+				byte type = record.get();
+				visitor.visit(type, record.slice());
+				in.position(in.position() + length);
+			}
+		}
+	}
+
+	private static List<Long> segments(Path dir) throws IOException {
+		List<Long> indexes = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "wal-*.log")) {
+			for (Path file : files) {
+				String fileName = file.getFileName().toString();
+				indexes.add(Long.parseLong(fileName.substring(4, fileName.length() - 4)));
+			}
+		}
+		Collections.sort(indexes);
+		return indexes;
+	}
+
+	private static String name(long index) {
+		return String.format("wal-%010d.log", index);
+	}
+}
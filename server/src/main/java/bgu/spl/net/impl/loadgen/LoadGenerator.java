@@ -0,0 +1,344 @@
+package bgu.spl.net.impl.loadgen;
+
+import bgu.spl.net.impl.stomp.StompFrame;
+import bgu.spl.net.impl.stomp.StompMessageEncoderDecoder;
+import bgu.spl.net.impl.stomp.StompMessagingProtocolimpl;
+import bgu.spl.net.srv.MultiReactor;
+import bgu.spl.net.srv.Server;
+import bgu.spl.net.srv.VirtualThreads;
+import bgu.spl.net.srv.metrics.Histogram;
+import bgu.spl.net.srv.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates a match day against one server mode: fans connect over loopback at a given rate and subscribe to games
+ * (a few games draw most of the fans), and one reporter per game publishes bursts of reports shaped like the
+ * ones the C++ client sends. It prints the publish to MESSAGE latency percentiles and the delivery throughput,
+ * followed by the server's own metrics when the server runs in this process.
+ * The server runs in this process unless the mode is "remote"; the SQL server is replaced by {@link StubSqlServer}
+ * unless loadgen.sqlStub is false.
+ *
+ * Settings (system properties, defaults in brackets):
+ *   loadgen.mode          tpc, vtpc, reactor, multireactor or remote [reactor]
+ *   loadgen.port          STOMP port [7900]
+ *   loadgen.clients       fans [2000]
+ *   loadgen.connectRate   fans connecting per second, 0 for as fast as possible [2000]
+ *   loadgen.games         games played at the same time [8]
+ *   loadgen.gamesPerFan   games every fan follows [1]
+ *   loadgen.skew          zipf exponent of the fans per game, 0 spreads them evenly [1.0]
+ *   loadgen.reportRate    reports published per second over all games [200]
+ *   loadgen.burst         reports a reporter sends back to back [5]
+ *   loadgen.descriptionBytes  length of a report's description [200]
+ *   loadgen.warmup        seconds before measuring [3]
+ *   loadgen.duration      seconds measured [10]
+ *   loadgen.sqlStub       start the SQL stand-in on port 7778 [true]
+ */
+public class LoadGenerator {
+
+    private static final String[] TEAMS = {
+            "Germany", "Japan", "Spain", "Costa Rica", "Brazil", "Serbia", "Argentina", "Saudi Arabia",
+            "France", "Australia", "England", "Iran", "Portugal", "Ghana", "Morocco", "Croatia"
+    };
+    private static final String[] EVENTS = {
+            "kickoff", "goal!!!!", "yellow card", "substitution", "corner", "halftime", "penalty", "final whistle"
+    };
+    private static final int SQL_PORT = 7778;
+
+    /**
+     * What the clients observed, shared by all of them.
+     */
+    public static class Stats {
+        private final long origin = System.nanoTime();
+        private final Histogram latency = new Histogram();
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder published = new LongAdder();
+        private final AtomicInteger failedClients = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+        private final CountDownLatch ready;
+        private volatile boolean measuring = false;
+
+        Stats(int clients) {
+            this.ready = new CountDownLatch(clients);
+        }
+
+        /**
+         * @return nanoseconds since the run started, so that stamps in reports are never negative
+         */
+        long now() {
+            return System.nanoTime() - origin;
+        }
+
+        void clientReady() {
+            ready.countDown();
+        }
+
+        void clientFailed() {
+            failedClients.incrementAndGet();
+        }
+
+        void error(String frame) {
+            if (errors.getAndIncrement() == 0) {
+                System.err.println("first ERROR frame:\n" + frame);
+            }
+        }
+
+        void delivered(long latencyNanos) {
+            if (measuring) {
+                delivered.increment();
+                latency.record(latencyNanos);
+            }
+        }
+
+        void published(int reports) {
+            if (measuring) {
+                published.add(reports);
+            }
+        }
+
+        void startMeasuring() {
+            latency.reset();
+            delivered.reset();
+            published.reset();
+            measuring = true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = System.getProperty("loadgen.mode", "reactor");
+        int port = Integer.getInteger("loadgen.port", 7900);
+        int clients = Integer.getInteger("loadgen.clients", 2000);
+        int connectRate = Integer.getInteger("loadgen.connectRate", 2000);
+        int games = Integer.getInteger("loadgen.games", 8);
+        int gamesPerFan = Math.min(games, Integer.getInteger("loadgen.gamesPerFan", 1));
+        double skew = Double.parseDouble(System.getProperty("loadgen.skew", "1.0"));
+        int reportRate = Integer.getInteger("loadgen.reportRate", 200);
+        int burst = Integer.getInteger("loadgen.burst", 5);
+        int descriptionBytes = Integer.getInteger("loadgen.descriptionBytes", 200);
+        int warmup = Integer.getInteger("loadgen.warmup", 3);
+        int duration = Integer.getInteger("loadgen.duration", 10);
+        boolean sqlStub = Boolean.parseBoolean(System.getProperty("loadgen.sqlStub", "true"));
+
+        StubSqlServer stub = null;
+        if (sqlStub) {
+            try {
+                stub = new StubSqlServer(SQL_PORT).start();
+            } catch (BindException ex) {
+                System.out.println("port " + SQL_PORT + " is taken, using the SQL server already running there");
+            }
+        }
+
+        Server<StompFrame> server = null;
+        if (!mode.equals("remote")) {
+            server = server(mode, port);
+            Thread serving = new Thread(server::serve, "loadgen-server-" + mode);
+            serving.setDaemon(true);
+            serving.start();
+            Thread.sleep(500);
+        }
+
+        String[] gameNames = gameNames(games);
+        String[][] reports = reports(gameNames, burst, descriptionBytes);
+        int[] fansPerGame = new int[games];
+        Stats stats = new Stats(games + clients);
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        List<SimulatedClient> all = new ArrayList<>();
+
+        SimulatedClient[] reporters = new SimulatedClient[games];
+        for (int g = 0; g < games; g++) {
+            reporters[g] = new SimulatedClient("reporter-" + g, new String[] { gameNames[g] }, address, stats);
+            all.add(reporters[g]);
+            VirtualThreads.startOrPlatform(reporters[g]);
+        }
+
+        Random random = new Random(42);
+        double[] weights = zipfWeights(games, skew);
+        long connectStart = System.nanoTime();
+        long connectInterval = connectRate > 0 ? TimeUnit.SECONDS.toNanos(1) / connectRate : 0;
+        for (int i = 0; i < clients; i++) {
+            int[] picked = pickGames(weights, gamesPerFan, random);
+            String[] followed = new String[picked.length];
+            for (int j = 0; j < picked.length; j++) {
+                followed[j] = gameNames[picked[j]];
+                fansPerGame[picked[j]]++;
+            }
+            SimulatedClient fan = new SimulatedClient("fan-" + i, followed, address, stats);
+            all.add(fan);
+            if (connectInterval > 0) {
+                LockSupport.parkNanos(connectStart + i * connectInterval - System.nanoTime());
+            }
+            VirtualThreads.startOrPlatform(fan);
+        }
+        if (!stats.ready.await(5, TimeUnit.MINUTES)) {
+            System.out.println("gave up waiting for all the clients to connect");
+        }
+        long connectMillis = (System.nanoTime() - connectStart) / 1_000_000;
+
+        // every reporter publishes its share of the rate, one burst per tick
+        double burstsPerSecond = Math.max(1e-3, (double) reportRate / burst / games);
+        long tick = (long) (TimeUnit.SECONDS.toNanos(1) / burstsPerSecond);
+        List<Thread> publishers = new ArrayList<>();
+        for (int g = 0; g < games; g++) {
+            final int game = g;
+            publishers.add(VirtualThreads.startOrPlatform(() -> {
+                long due = stats.now() + (long) (tick * phase(game));
+                while (!Thread.currentThread().isInterrupted()) {
+                    long wait = due - stats.now();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                        continue;
+                    }
+                    try {
+                        reporters[game].publish(gameNames[game], reports[game], due);
+                    } catch (IOException ex) {
+                        return;
+                    }
+                    stats.published(burst);
+                    due += tick;
+                }
+            }));
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+        stats.startMeasuring();
+        long measureStart = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        stats.measuring = false;
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+
+        long expected = 0;
+        for (int g = 0; g < games; g++) {
+            // a reporter also receives its own reports
+            expected += (fansPerGame[g] + 1L) * (long) (burstsPerSecond * burst * seconds);
+        }
+        Histogram latency = stats.latency;
+        System.out.printf("mode=%s clients=%d games=%d failedClients=%d errors=%d connect=%dms%n",
+                mode, clients, games, stats.failedClients.get(), stats.errors.get(), connectMillis);
+        System.out.printf("published=%d (%.0f/s) delivered=%d (%.0f/s, %.1f%% of expected)%n",
+                stats.published.sum(), stats.published.sum() / seconds,
+                stats.delivered.sum(), stats.delivered.sum() / seconds,
+                expected == 0 ? 0 : 100.0 * stats.delivered.sum() / expected);
+        System.out.printf("latency us: p50=%d p90=%d p99=%d p999=%d max=%d%n",
+                micros(latency.percentile(50)), micros(latency.percentile(90)), micros(latency.percentile(99)),
+                micros(latency.percentile(99.9)), micros(latency.max()));
+        if (server != null) {
+            System.out.print("server metrics:\n" + MetricsRegistry.getInstance().render());
+        }
+
+        for (Thread publisher : publishers) {
+            publisher.interrupt();
+        }
+        for (SimulatedClient client : all) {
+            client.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+        if (stub != null) {
+            stub.close();
+        }
+        System.exit(0);
+    }
+
+    private static Server<StompFrame> server(String mode, int port) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        switch (mode) {
+            case "tpc":
+                return Server.threadPerClient(port, StompMessagingProtocolimpl::new, StompMessageEncoderDecoder::new);
+            case "vtpc":
+                return Server.virtualThreadPerClient(port, StompMessagingProtocolimpl::new, StompMessageEncoderDecoder::new);
+            case "reactor":
+                return Server.reactor(cores, port, StompMessagingProtocolimpl::new, StompMessageEncoderDecoder::new);
+            case "multireactor":
+                return Server.multiReactor(cores, cores, MultiReactor.Balance.ROUND_ROBIN, port,
+                        StompMessagingProtocolimpl::new, StompMessageEncoderDecoder::new);
+            default:
+                throw new IllegalArgumentException("unknown mode " + mode);
+        }
+    }
+
+    private static String[] gameNames(int games) {
+        String[] names = new String[games];
+        for (int g = 0; g < games; g++) {
+            String teamA = TEAMS[(2 * g) % TEAMS.length];
+            String teamB = TEAMS[(2 * g + 1) % TEAMS.length];
+            String round = g < TEAMS.length / 2 ? "" : "-" + (g / (TEAMS.length / 2));
+            names[g] = teamA + "_" + teamB + round;
+        }
+        return names;
+    }
+
+    /**
+     * @return for every game, one burst of reports in the format of the C++ client, without the user line
+     */
+    private static String[][] reports(String[] gameNames, int burst, int descriptionBytes) {
+        StringBuilder filler = new StringBuilder();
+        while (filler.length() < descriptionBytes) {
+            filler.append("What a match, the crowd is on its feet! ");
+        }
+        String description = filler.substring(0, descriptionBytes);
+
+        String[][] reports = new String[gameNames.length][burst];
+        for (int g = 0; g < gameNames.length; g++) {
+            String[] teams = gameNames[g].split("[_-]");
+            for (int i = 0; i < burst; i++) {
+                reports[g][i] = "team a:" + teams[0] + "\n"
+                        + "team b:" + teams[1] + "\n"
+                        + "event name:" + EVENTS[i % EVENTS.length] + "\n"
+                        + "time:" + (i * 60) + "\n"
+                        + "general game updates:\nactive:true\n"
+                        + "team a updates:\ngoals:" + (i / 2) + "\npossession:" + (40 + i % 20) + "%\n"
+                        + "team b updates:\ngoals:" + (i / 3) + "\n"
+                        + "description:\n" + description + "\n";
+            }
+        }
+        return reports;
+    }
+
+    private static double[] zipfWeights(int games, double skew) {
+        double[] weights = new double[games];
+        for (int g = 0; g < games; g++) {
+            weights[g] = 1.0 / Math.pow(g + 1, skew);
+        }
+        return weights;
+    }
+
+    private static int[] pickGames(double[] weights, int count, Random random) {
+        double[] left = weights.clone();
+        int[] picked = new int[count];
+        for (int p = 0; p < count; p++) {
+            double total = 0;
+            for (double w : left) {
+                total += w;
+            }
+            double r = random.nextDouble() * total;
+            int g = 0;
+            while (g < left.length - 1 && (r -= left[g]) >= 0) {
+                g++;
+            }
+            picked[p] = g;
+            left[g] = 0;
+        }
+        return picked;
+    }
+
+    /**
+     * Spreads the first burst of each game over one tick, so the reporters do not all publish at the same instant.
+     */
+    private static double phase(int game) {
+        return new Random(game).nextDouble();
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+}
@@ -0,0 +1,164 @@
+package bgu.spl.net.impl.loadgen;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One simulated fan: it logs in, subscribes to its games and then reads MESSAGE frames until it is closed,
+ * recording for every report how long it took from the moment it was due to be published.
+ * A reporter is a client that also publishes, from another thread, through {@link #publish}.
+ */
+public class SimulatedClient implements Runnable {
+
+    /*package*/ static final String SENT_AT = "sent at:";
+    private static final byte[] SENT_AT_BYTES = SENT_AT.getBytes(StandardCharsets.UTF_8);
+
+    private final String login;
+    private final String[] games;
+    private final InetSocketAddress address;
+    private final LoadGenerator.Stats stats;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile SocketChannel chan;
+    private volatile boolean closing = false;
+    private boolean ready = false;
+
+    public SimulatedClient(String login, String[] games, InetSocketAddress address, LoadGenerator.Stats stats) {
+        this.login = login;
+        this.games = games;
+        this.address = address;
+        this.stats = stats;
+    }
+
+    @Override
+    public void run() {
+        try (SocketChannel chan = SocketChannel.open(address)) {
+            this.chan = chan;
+            write("CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:" + login + "\npasscode:loadgen\n\n\u0000");
+            for (int i = 0; i < games.length; i++) {
+                String receipt = i == games.length - 1 ? "receipt:" + i + "\n" : "";
+                write("SUBSCRIBE\ndestination:/" + games[i] + "\nid:" + i + "\n" + receipt + "\n\u0000");
+            }
+            readFrames(chan);
+        } catch (IOException ex) {
+            if (!closing) {
+                stats.clientFailed();
+            }
+        } finally {
+            markReady(); // so a client that failed does not hold up the run
+        }
+    }
+
+    private void markReady() {
+        if (!ready) {
+            ready = true;
+            stats.clientReady();
+        }
+    }
+
+    private void readFrames(SocketChannel chan) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 13);
+        byte[] frame = new byte[1 << 10];
+        int length = 0;
+        int awaitingSetup = 2; // CONNECTED and the RECEIPT of the last SUBSCRIBE
+        while (chan.read(buf) >= 0) {
+            long receivedAt = stats.now();
+            buf.flip();
+            while (buf.hasRemaining()) {
+                byte b = buf.get();
+                if (b != 0) {
+                    if (length == frame.length) {
+                        frame = Arrays.copyOf(frame, length * 2);
+                    }
+                    frame[length++] = b;
+                    continue;
+                }
+                if (startsWith(frame, length, "MESSAGE")) {
+                    long sentAt = sentAt(frame, length);
+                    if (sentAt != 0) {
+                        stats.delivered(receivedAt - sentAt);
+                    }
+                } else if (startsWith(frame, length, "ERROR")) {
+                    stats.error(new String(frame, 0, length, StandardCharsets.UTF_8));
+                } else if (awaitingSetup > 0 && --awaitingSetup == 0) {
+                    markReady();
+                }
+                length = 0;
+            }
+            buf.clear();
+        }
+    }
+
+    /**
+     * Sends a burst of reports to a game, all of them stamped with the time they were due.
+     * Stamping the due time rather than the send time keeps a publisher that fell behind from hiding the delay.
+     */
+    public void publish(String game, String[] reports, long dueAt) throws IOException {
+        StringBuilder burst = new StringBuilder();
+        for (String report : reports) {
+            burst.append("SEND\ndestination:/").append(game).append("\n\n")
+                    .append("user:").append(login).append('\n')
+                    .append(report)
+                    .append(SENT_AT).append(dueAt).append('\n')
+                    .append('\u0000');
+        }
+        write(burst.toString());
+    }
+
+    private void write(String frames) throws IOException {
+        ByteBuffer out = ByteBuffer.wrap(frames.getBytes(StandardCharsets.UTF_8));
+        writeLock.lock();
+        try {
+            while (out.hasRemaining()) {
+                chan.write(out);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void close() {
+        closing = true;
+        SocketChannel chan = this.chan;
+        if (chan != null) {
+            try {
+                chan.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] frame, int length, String command) {
+        if (length < command.length()) {
+            return false;
+        }
+        for (int i = 0; i < command.length(); i++) {
+            if (frame[i] != command.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long sentAt(byte[] frame, int length) {
+        outer:
+        for (int i = length - SENT_AT_BYTES.length; i >= 0; i--) {
+            for (int j = 0; j < SENT_AT_BYTES.length; j++) {
+                if (frame[i + j] != SENT_AT_BYTES[j]) {
+                    continue outer;
+                }
+            }
+            long value = 0;
+            for (int k = i + SENT_AT_BYTES.length; k < length && frame[k] >= '0' && frame[k] <= '9'; k++) {
+                value = value * 10 + (frame[k] - '0');
+            }
+            return value;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,138 @@
+package bgu.spl.net.impl.loadgen;
+
+import bgu.spl.net.srv.VirtualThreads;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A stand-in for data/sql_server.py that answers every statement at once without storing anything:
+ * queries, text or prepared, get an empty result and everything else, binary prepare and batch messages included,
+ * gets "done".
+ * It lets the load generator measure the STOMP server without sqlite in the way.
+ */
+public class StubSqlServer implements Runnable {
+
+    private static final byte[] DONE = "done\u0000".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EMPTY_RESULT = "SUCCESS |\u0000".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NO_ROWS = "ROWS\u0000".getBytes(StandardCharsets.UTF_8);
+    private static final byte BINARY_MARKER = 0x01;
+
+    private final ServerSocketChannel serverSock;
+
+    public StubSqlServer(int port) throws IOException {
+        serverSock = ServerSocketChannel.open();
+        serverSock.bind(new InetSocketAddress("127.0.0.1", port));
+    }
+
+    /**
+     * Accepts clients on a daemon thread, one virtual thread per client where the JVM has them.
+     */
+    public StubSqlServer start() {
+        Thread acceptor = new Thread(this, "stub-sql-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                SocketChannel client = serverSock.accept();
+                VirtualThreads.startOrPlatform(() -> serve(client));
+            }
+        } catch (IOException ex) {
+            //do nothing - the stub was closed
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try (SocketChannel chan = client) {
+            ByteBuffer in = ByteBuffer.allocate(1 << 14);
+            ByteBuffer out = ByteBuffer.allocate(1 << 14);
+            // the first bytes of the statement being read, enough to tell a query from a command
+            byte[] head = new byte[6];
+            int headLength = 0;
+            boolean atStart = true;
+            // for a binary message: length bytes still to read, then payload bytes still to skip
+            int lengthBytes = 0;
+            long skip = 0;
+            boolean first = false;
+            boolean binaryQuery = false;
+            while (chan.read(in) >= 0) {
+                in.flip();
+                while (in.hasRemaining()) {
+                    if (skip > 0) {
+                        if (first) {
+                            binaryQuery = in.get(in.position()) == 'Q';
+                            first = false;
+                        }
+                        int n = (int) Math.min(skip, in.remaining());
+                        in.position(in.position() + n);
+                        skip -= n;
+                        if (skip == 0) {
+                            out = reply(chan, out, binaryQuery ? NO_ROWS : DONE);
+                        }
+                        continue;
+                    }
+                    byte b = in.get();
+                    if (lengthBytes > 0) {
+                        skip = (skip << 8) | (b & 0xFF);
+                        if (--lengthBytes == 0) {
+                            first = true;
+                            if (skip == 0) {
+                                out = reply(chan, out, DONE);
+                            }
+                        }
+                        continue;
+                    }
+                    if (atStart && b == BINARY_MARKER) {
+                        lengthBytes = 4;
+                        continue;
+                    }
+                    atStart = false;
+                    if (b != 0) {
+                        if (headLength < head.length && (headLength > 0 || !Character.isWhitespace(b))) {
+                            head[headLength++] = b;
+                        }
+                        continue;
+                    }
+                    out = reply(chan, out, isQuery(head, headLength) ? EMPTY_RESULT : DONE);
+                    headLength = 0;
+                    atStart = true;
+                }
+                in.clear();
+                flush(chan, out);
+            }
+        } catch (IOException ex) {
+            //do nothing - the client went away
+        }
+    }
+
+    private static ByteBuffer reply(SocketChannel chan, ByteBuffer out, byte[] reply) throws IOException {
+        if (out.remaining() < reply.length) {
+            flush(chan, out);
+        }
+        return out.put(reply);
+    }
+
+    private static boolean isQuery(byte[] head, int length) {
+        return length == 6 && new String(head, StandardCharsets.US_ASCII).equalsIgnoreCase("select");
+    }
+
+    private static void flush(SocketChannel chan, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            chan.write(out);
+        }
+        out.clear();
+    }
+
+    public void close() throws IOException {
+        serverSock.close();
+    }
+}
@@ -0,0 +1,69 @@
+package bgu.spl.net.impl.stomp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A MESSAGE frame that is serialized once and delivered to many subscribers.
+ * The command, the common headers, the message-id and the body are encoded into two shared read-only buffers,
+ * only the subscription header is encoded for each recipient.
+ */
+public class BroadcastFrame {
+    private final long messageId;
+    private final ByteBuffer head;
+    private final ByteBuffer tail;
+
+    public BroadcastFrame(StompFrame original, long messageId) {
+        this.messageId = messageId;
+        StringBuilder sb = new StringBuilder();
+        sb.append("MESSAGE").append("\n");
+        sb.append("message-id:").append(messageId).append("\n");
+        for (Map.Entry<String, String> header : original.getMap().entrySet()) {
+            String key = header.getKey();
+            if (!key.equals("subscription") && !key.equals("message-id")) {
+                sb.append(key).append(":").append(header.getValue()).append("\n");
+            }
+        }
+        this.head = readOnly(sb.toString());
+
+        sb.setLength(0);
+        sb.append("\n");
+        if (original.getBody() != null) {
+            sb.append(original.getBody());
+        }
+        sb.append("\u0000");
+        this.tail = readOnly(sb.toString());
+    }
+
+    /**
+     * @return the buffers that make up the frame for one subscriber, to be written in order.
+     * The shared parts are independent views, so the body bytes are never copied.
+     */
+    public ByteBuffer[] forSubscriber(int subscriptionId) {
+        return forSubscriber(("subscription:" + subscriptionId + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Same as {@link #forSubscriber(int)} with the subscription header line already encoded,
+     * so the broadcast loop does not format the id again for every message.
+     */
+    public ByteBuffer[] forSubscriber(byte[] subscriptionHeader) {
+        return new ByteBuffer[] { head.duplicate(), ByteBuffer.wrap(subscriptionHeader), tail.duplicate() };
+    }
+
+    public long getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return the bytes held by the shared parts of the frame
+     */
+    public int size() {
+        return head.capacity() + tail.capacity();
+    }
+
+    private static ByteBuffer readOnly(String part) {
+        return ByteBuffer.wrap(part.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,115 @@
+package bgu.spl.net.impl.stomp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The current state of one game, folded from the reports published to its channel.
+ * A report only sets the keys it mentions, so applying one costs as much as its update sections
+ * and the description is never scanned. Values are absolute, so applying a report twice changes nothing.
+ */
+public class GameState {
+
+    private static final String GENERAL = "general game updates:";
+    private static final String TEAM_A = "team a updates:";
+    private static final String TEAM_B = "team b updates:";
+    private static final String DESCRIPTION = "description:";
+
+    private String teamA = "";
+    private String teamB = "";
+    private String lastEvent = "";
+    private String time = "0";
+    private long reports = 0;
+    private final Map<String, String> general = new LinkedHashMap<>();
+    private final Map<String, String> teamAUpdates = new LinkedHashMap<>();
+    private final Map<String, String> teamBUpdates = new LinkedHashMap<>();
+
+    /**
+     * @param body a report in the format of the client: the report fields, then the three update sections
+     * of "key:value" lines, then the description
+     */
+    public synchronized void apply(String body) {
+        Map<String, String> section = null;
+        int start = 0;
+        while (start < body.length()) {
+            int end = body.indexOf('\n', start);
+            if (end < 0) {
+                end = body.length();
+            }
+            if (isLine(body, start, end, DESCRIPTION)) {
+                break;
+            } else if (isLine(body, start, end, GENERAL)) {
+                section = general;
+            } else if (isLine(body, start, end, TEAM_A)) {
+                section = teamAUpdates;
+            } else if (isLine(body, start, end, TEAM_B)) {
+                section = teamBUpdates;
+            } else {
+                int colon = body.indexOf(':', start);
+                if (colon > start && colon < end) {
+                    String key = body.substring(start, colon).trim();
+                    String value = body.substring(colon + 1, end).trim();
+                    if (section != null) {
+                        section.put(key, value);
+                    } else {
+                        applyField(key, value);
+                    }
+                }
+            }
+            start = end + 1;
+        }
+        reports++;
+    }
+
+    private void applyField(String key, String value) {
+        switch (key) {
+            case "team a":
+                teamA = value;
+                break;
+            case "team b":
+                teamB = value;
+                break;
+            case "event name":
+                lastEvent = value;
+                break;
+            case "time":
+                time = value;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static boolean isLine(String body, int start, int end, String line) {
+        return end - start == line.length() && body.startsWith(line, start);
+    }
+
+    public synchronized long getReports() {
+        return reports;
+    }
+
+    /**
+     * @return the whole state as one report in the client's format, so clients that understand reports
+     * can apply it like any other
+     */
+    public synchronized String snapshotBody() {
+        StringBuilder body = new StringBuilder();
+        body.append("team a:").append(teamA).append('\n');
+        body.append("team b:").append(teamB).append('\n');
+        body.append("event name:").append(lastEvent).append('\n');
+        body.append("time:").append(time).append('\n');
+        appendSection(body, GENERAL, general);
+        appendSection(body, TEAM_A, teamAUpdates);
+        appendSection(body, TEAM_B, teamBUpdates);
+        body.append(DESCRIPTION).append('\n');
+        body.append("Snapshot of ").append(reports).append(" reports").append('\n');
+        return body.toString();
+    }
+
+    private static void appendSection(StringBuilder body, String title, Map<String, String> updates) {
+        body.append(title).append('\n');
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            body.append(update.getKey()).append(':').append(update.getValue()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package bgu.spl.net.impl.stomp;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The game state of every channel reports were sent to, shared by all connections.
+ */
+public class GameStateStore {
+
+    private final ConcurrentHashMap<String, GameState> states = new ConcurrentHashMap<>();
+
+    private static class Instance {
+        static GameStateStore instance = new GameStateStore();
+    }
+
+    public static GameStateStore getInstance() {
+        return Instance.instance;
+    }
+
+    public void apply(String channel, String body) {
+        GameState state = states.get(channel);
+        if (state == null) {
+            state = states.computeIfAbsent(channel, c -> new GameState());
+        }
+        state.apply(body);
+    }
+
+    /**
+     * @return the state of the game on the channel, or null if nothing was reported to it yet
+     */
+    public GameState get(String channel) {
+        return states.get(channel);
+    }
+}
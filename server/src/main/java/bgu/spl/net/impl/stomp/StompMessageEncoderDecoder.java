@@ -1,5 +1,7 @@
 package bgu.spl.net.impl.stomp;
 import bgu.spl.net.api.MessageEncoderDecoder;
+import bgu.spl.net.srv.metrics.ServerMetrics;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -7,43 +9,53 @@ import java.util.Map;
 
 public class StompMessageEncoderDecoder implements MessageEncoderDecoder<StompFrame> {
 
-     private byte[] bytes = new byte[1 << 10]; 
+    // commands and header names are matched against these so that decoding them allocates nothing
+    private static final String[] KNOWN_TOKENS = {
+            "CONNECT", "STOMP", "SEND", "SUBSCRIBE", "UNSUBSCRIBE", "DISCONNECT",
+            "BEGIN", "COMMIT", "ABORT", "ACK", "NACK",
+            "accept-version", "host", "login", "passcode", "heart-beat", "destination", "id",
+            "receipt", "ack", "transaction", "content-type", "content-length", "filename", "file",
+            "replay-last", "replay-since", "snapshot", "restore-subscriptions"
+    };
+    private static final byte[][] KNOWN_TOKEN_BYTES = new byte[KNOWN_TOKENS.length][];
+
+    static {
+        for (int i = 0; i < KNOWN_TOKENS.length; i++) {
+            KNOWN_TOKEN_BYTES[i] = KNOWN_TOKENS[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+     private byte[] bytes = new byte[1 << 10];
     private int len = 0;
 
     @Override
     public StompFrame decodeNextByte(byte nextByte) {
         if (nextByte != '\u0000') {
             pushByte(nextByte);
-            return null; 
+            return null;
         }
+        return popFrame();
+    }
 
-        String fullFrame = popString();
-        String[] lines = fullFrame.split("\n", -1);;
-        if (lines.length == 0) 
-            return null;
-        String command = lines[0].trim();
-        Map<String, String> headers = new HashMap<>();
-        int i = 1;
-        while (i < lines.length && !lines[i].isEmpty()) {
-            String line = lines[i];
-            int colonIndex = line.indexOf(':');
-            if (colonIndex != -1) {
-                String key = line.substring(0, colonIndex).trim();
-                String value = line.substring(colonIndex + 1).trim();
-                headers.put(key, value);
-            }
-            i++;
+    /**
+     * Scans the buffer for the frame terminator and copies everything up to it in one bulk get,
+     * instead of going through decodeNextByte for every byte.
+     */
+    @Override
+    public StompFrame decodeNextBytes(ByteBuffer buffer) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        int end = start;
+        while (end < limit && buffer.get(end) != '\u0000') {
+            end++;
         }
-        StringBuilder bodyBuilder = new StringBuilder();
-        i++; 
-        while (i < lines.length) {
-            bodyBuilder.append(lines[i]);
-            if (i < lines.length - 1) {
-                bodyBuilder.append("\n");
-            }
-            i++;
+
+        pushBytes(buffer, end - start);
+        if (end == limit) {
+            return null;
         }
-        return new StompFrame(command, headers, bodyBuilder.toString());
+        buffer.get(); // the terminating NUL
+        return popFrame();
     }
 
     @Override
@@ -59,9 +71,92 @@ public class StompMessageEncoderDecoder implements MessageEncoderDecoder<StompFr
         bytes[len++] = nextByte;
     }
 
-    private String popString() {
-        String result = new String(bytes, 0, len, StandardCharsets.UTF_8);
+    private void pushBytes(ByteBuffer buffer, int count) {
+        if (len + count > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, len + count));
+        }
+        buffer.get(bytes, len, count);
+        len += count;
+    }
+
+    /**
+     * Parses the accumulated frame straight from the byte array and resets the accumulator.
+     * @return the frame, or null if the bytes held only end-of-line heart-beats.
+     */
+    private StompFrame popFrame() {
+        int pos = 0;
+        // EOLs between frames are heart-beats, not part of the next command
+        while (pos < len && (bytes[pos] == '\n' || bytes[pos] == '\r')) {
+            pos++;
+        }
+        if (pos == len) {
+            len = 0;
+            return null;
+        }
+
+        int eol = lineEnd(pos);
+        String command = token(pos, eol);
+        pos = eol + 1;
+        ServerMetrics.frameDecoded(command);
+
+        Map<String, String> headers = new HashMap<>();
+        boolean hasBody = false;
+        while (pos < len) {
+            eol = lineEnd(pos);
+            if (eol == pos || (eol == pos + 1 && bytes[pos] == '\r')) {
+                pos = eol + 1;
+                hasBody = true;
+                break;
+            }
+            int colon = pos;
+            while (colon < eol && bytes[colon] != ':') {
+                colon++;
+            }
+            if (colon < eol) {
+                headers.put(token(pos, colon), token(colon + 1, eol));
+            }
+            pos = eol + 1;
+        }
+
+        String body = hasBody && pos < len ? new String(bytes, pos, len - pos, StandardCharsets.UTF_8) : "";
         len = 0;
-        return result;
+        return new StompFrame(command, headers, body);
+    }
+
+    private int lineEnd(int from) {
+        int i = from;
+        while (i < len && bytes[i] != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the trimmed text between from and to, reusing a known token when it matches one.
+     */
+    private String token(int from, int to) {
+        while (from < to && (bytes[from] & 0xff) <= ' ') {
+            from++;
+        }
+        while (to > from && (bytes[to - 1] & 0xff) <= ' ') {
+            to--;
+        }
+        int length = to - from;
+        for (int i = 0; i < KNOWN_TOKEN_BYTES.length; i++) {
+            byte[] known = KNOWN_TOKEN_BYTES[i];
+            if (known.length == length && matches(known, from)) {
+                return KNOWN_TOKENS[i];
+            }
+        }
+        return new String(bytes, from, length, StandardCharsets.UTF_8);
+    }
+
+    private boolean matches(byte[] known, int from) {
+        for (int i = 0; i < known.length; i++) {
+            if (bytes[from + i] != known[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -2,6 +2,7 @@ package bgu.spl.net.impl.stomp;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.LongSupplier;
 import bgu.spl.net.api.StompMessagingProtocol;
 import bgu.spl.net.impl.data.Database;
 import bgu.spl.net.srv.Connections;
@@ -9,15 +10,18 @@ import bgu.spl.net.srv.ConnectionsImpl;
 
 public class StompMessagingProtocolimpl implements StompMessagingProtocol<StompFrame> {
 
+    // the heart-beat the server offers in CONNECTED: the least interval it sends at, and wants the client's input at
+    private static final long HEARTBEAT_SEND_MS = Long.getLong("stomp.heartbeat.sendMs", 10000);
+    private static final long HEARTBEAT_RECEIVE_MS = Long.getLong("stomp.heartbeat.receiveMs", 10000);
+
     private boolean shouldTerminate = false;
     private int connectionId;
     private ConnectionsImpl<StompFrame> connections;
     private boolean loggedIn = false;
     private String userName = null;
     
-    // Local mapping to track subId -> channel for this specific connection
-    private final Map<String, String> subIdToChannel = new HashMap<>();
     private final Database database = Database.getInstance();
+    private final GameStateStore gameStates = GameStateStore.getInstance();
 
     @Override
     public void start(int connectionId, Connections<StompFrame> connections) {
@@ -68,13 +72,26 @@ public class StompMessagingProtocolimpl implements StompMessagingProtocol<StompF
     private void handleConnect(StompFrame message) {
         String login = message.GetHeader("login");
         String passcode = message.GetHeader("passcode");
+        long[] clientHeartbeat = parseHeartbeat(message.GetHeader("heart-beat"));
+        if (clientHeartbeat == null) {
+            sendError("Invalid heart-beat header", message);
+            return;
+        }
 
         bgu.spl.net.impl.data.LoginStatus st = database.login(connectionId, login, passcode);
 
         if (st == bgu.spl.net.impl.data.LoginStatus.ADDED_NEW_USER || st == bgu.spl.net.impl.data.LoginStatus.LOGGED_IN_SUCCESSFULLY) {
             this.loggedIn = true;
             this.userName = login;
-            sendConnected();
+            sendConnected(negotiateHeartbeat(clientHeartbeat[0], clientHeartbeat[1]));
+            // the subscriptions the user held last time come back only when asked for, otherwise they are forgotten
+            if ("true".equals(message.GetHeader("restore-subscriptions"))) {
+                for (Map.Entry<Integer, String> saved : database.savedSubscriptions(connectionId).entrySet()) {
+                    connections.subscribe(connectionId, saved.getValue(), String.valueOf(saved.getKey()));
+                }
+            } else {
+                database.clearSavedSubscriptions(connectionId);
+            }
         } 
         else if (st == bgu.spl.net.impl.data.LoginStatus.WRONG_PASSWORD) {
             sendError("Wrong password", message);
@@ -108,7 +125,9 @@ public class StompMessagingProtocolimpl implements StompMessagingProtocol<StompF
             database.trackFileUpload(this.userName, filename, destination);
         }
 
-        connections.send(destination, message);
+        // the state is updated where the report gets its message-id, so the reports reach the state
+        // in the order subscribers receive them, and a snapshot taken after the broadcast includes it
+        connections.send(destination, message, () -> gameStates.apply(destination, message.getBody()));
     }
 
     private void handleSubscribe(StompFrame message) {
@@ -120,19 +139,62 @@ public class StompMessagingProtocolimpl implements StompMessagingProtocol<StompF
             return;
         }
 
-        // Register subscription in both database and local protocol map
+        // The subscription index is shared with the database, registering it once covers both
         try {
-            int id = Integer.parseInt(subId);
-            database.subscribeToGame(destination, connectionId, id);
-            subIdToChannel.put(subId, destination);
-            
-            // Note: Connections implementation might also track this
-            connections.subscribe(connectionId, destination, subId);
+            if (Integer.parseInt(subId) < 0) {
+                throw new NumberFormatException();
+            }
         } catch (NumberFormatException e) {
             sendError("Invalid subscription ID format", message);
+            return;
+        }
+        // ids are unique per connection, reusing one would leave the old subscription unreachable
+        if (connections.hasSubscription(connectionId, subId)) {
+            sendError("Subscription ID already in use", message);
+            return;
+        }
+
+        // Optional catch-up for late joiners: a snapshot of the game state, and a replay of the messages
+        // the channel kept, the last N or the ones after a message-id
+        boolean snapshot = "true".equals(message.GetHeader("snapshot"));
+        String replayLast = message.GetHeader("replay-last");
+        String replaySince = message.GetHeader("replay-since");
+        if (!snapshot && replayLast == null && replaySince == null) {
+            connections.subscribe(connectionId, destination, subId);
+            database.subscriptionSaved(connectionId, Integer.parseInt(subId), destination);
+            return;
+        }
+        try {
+            int last = replayLast != null ? Integer.parseInt(replayLast) : 0;
+            long since = replaySince != null ? Long.parseLong(replaySince) : -1;
+            if (last < 0 || (replaySince != null && since < 0)) {
+                throw new NumberFormatException();
+            }
+            connections.subscribe(connectionId, destination, subId, last, since,
+                    snapshot ? messageIds -> snapshotFrame(destination, subId, messageIds) : null);
+            database.subscriptionSaved(connectionId, Integer.parseInt(subId), destination);
+        } catch (NumberFormatException e) {
+            sendError("Invalid replay-last or replay-since header", message);
         }
     }
 
+    /**
+     * @param messageIds the channel's message-ids, one is taken for the snapshot so it orders like any other MESSAGE
+     * @return a MESSAGE with the whole state of the game, marked with a snapshot header, or null before the first report
+     */
+    private StompFrame snapshotFrame(String destination, String subId, LongSupplier messageIds) {
+        GameState state = gameStates.get(destination);
+        if (state == null) {
+            return null;
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put("destination", destination);
+        headers.put("subscription", subId);
+        headers.put("message-id", String.valueOf(messageIds.getAsLong()));
+        headers.put("snapshot", "true");
+        return new StompFrame("MESSAGE", headers, state.snapshotBody());
+    }
+
     private void handleUnsubscribe(StompFrame message) {
         String subId = message.GetHeader("id");
         if (subId == null) {
@@ -141,12 +203,12 @@ public class StompMessagingProtocolimpl implements StompMessagingProtocol<StompF
         }
 
         try {
-            String destination = subIdToChannel.remove(subId);
-            if (destination != null) {
-                database.unsubscribeFromGame(connectionId, Integer.parseInt(subId));
-                connections.unsubscribe(connectionId, destination);
-            } else {
+            Integer.parseInt(subId);
+            String destination = connections.unsubscribeById(connectionId, subId);
+            if (destination == null) {
                 sendError("Subscription ID not found", message);
+            } else {
+                database.subscriptionDropped(connectionId, Integer.parseInt(subId));
             }
         } catch (NumberFormatException e) {
             sendError("Invalid subscription ID format", message);
@@ -178,7 +240,6 @@ public class StompMessagingProtocolimpl implements StompMessagingProtocol<StompF
 
     @Override
     public void terminateConnection() {
-        database.unsubscribeFromAll(connectionId);
         database.logout(connectionId);
         connections.disconnect(connectionId);
     }
@@ -197,9 +258,44 @@ public class StompMessagingProtocolimpl implements StompMessagingProtocol<StompF
         }
     }
 
-    private void sendConnected() {
+    /**
+     * @return the client's "cx,cy" as {cx, cy}, {0, 0} if it sent none, or null if it is malformed
+     */
+    private static long[] parseHeartbeat(String header) {
+        if (header == null) {
+            return new long[] { 0, 0 };
+        }
+        String[] parts = header.split(",", -1);
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            long cx = Long.parseLong(parts[0].trim());
+            long cy = Long.parseLong(parts[1].trim());
+            return cx < 0 || cy < 0 ? null : new long[] { cx, cy };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Settles the intervals of both directions as the STOMP 1.2 spec does: each side uses the larger of what the
+     * sender can do and what the receiver wants, and none at all if either of them said 0.
+     * @return the heart-beat header of CONNECTED
+     */
+    private String negotiateHeartbeat(long clientSends, long clientWants) {
+        long sendEvery = HEARTBEAT_SEND_MS == 0 || clientWants == 0 ? 0 : Math.max(HEARTBEAT_SEND_MS, clientWants);
+        long expectEvery = clientSends == 0 || HEARTBEAT_RECEIVE_MS == 0 ? 0 : Math.max(clientSends, HEARTBEAT_RECEIVE_MS);
+        if (!connections.heartbeat(connectionId, sendEvery, expectEvery)) {
+            return "0,0"; // a blocking connection keeps no timers
+        }
+        return HEARTBEAT_SEND_MS + "," + HEARTBEAT_RECEIVE_MS;
+    }
+
+    private void sendConnected(String heartbeat) {
         Map<String, String> headers = new HashMap<>();
         headers.put("version", "1.2");
+        headers.put("heart-beat", heartbeat);
         connections.send(connectionId, new StompFrame("CONNECTED", headers, ""));
     }
 }
\ No newline at end of file
@@ -1,15 +1,18 @@
 package bgu.spl.net.impl.stomp;
+import bgu.spl.net.srv.MultiReactor;
 import bgu.spl.net.srv.Server;
+import bgu.spl.net.srv.metrics.MetricsReporter;
 public class StompServer {
 
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.out.println("Usage: StompServer <port> <tpc/reactor>");
+            System.out.println("Usage: StompServer <port> <tpc/vtpc/reactor/multireactor> [reactors] [round-robin/least-loaded]");
             return;
         }
 
         int port = Integer.parseInt(args[0]);
         String mode = args[1];
+        MetricsReporter.startFromProperties();
 
         if (mode.equals("tpc")) {
             Server.<StompFrame>threadPerClient(
@@ -18,6 +21,13 @@ public class StompServer {
                     () -> new StompMessageEncoderDecoder()
             ).serve();
         } 
+        else if (mode.equals("vtpc")) {
+            Server.<StompFrame>virtualThreadPerClient(
+                    port,
+                    () -> new StompMessagingProtocolimpl(),
+                    () -> new StompMessageEncoderDecoder()
+            ).serve();
+        }
         else if (mode.equals("reactor")) {
             Server.<StompFrame>reactor(
                     Runtime.getRuntime().availableProcessors(),
@@ -26,8 +36,23 @@ public class StompServer {
                     () -> new StompMessageEncoderDecoder() 
             ).serve();
         } 
+        else if (mode.equals("multireactor")) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            int reactors = args.length > 2 ? Integer.parseInt(args[2]) : cores;
+            MultiReactor.Balance balance = args.length > 3 && args[3].equals("least-loaded")
+                    ? MultiReactor.Balance.LEAST_LOADED
+                    : MultiReactor.Balance.ROUND_ROBIN;
+            Server.<StompFrame>multiReactor(
+                    cores,
+                    reactors,
+                    balance,
+                    port,
+                    () -> new StompMessagingProtocolimpl(),
+                    () -> new StompMessageEncoderDecoder()
+            ).serve();
+        }
         else {
-            System.out.println("Unknown mode: " + mode + ". Use 'tpc' or 'reactor'.");
+            System.out.println("Unknown mode: " + mode + ". Use 'tpc', 'vtpc', 'reactor' or 'multireactor'.");
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package bgu.spl.net.srv;
+
+import bgu.spl.net.srv.metrics.ServerMetrics;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The pending tasks of a single actor.
+ * Any thread may add tasks without locking, the thread that flips the scheduled flag hands the
+ * mailbox to the executor and the worker running it drains the tasks one at a time, in order.
+ */
+public class ActorMailbox implements Runnable {
+
+    // tasks run per turn before the worker is given back, so a busy actor cannot starve the others
+    private static final int MAX_TASKS_PER_TURN = 64;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile Executor executor;
+    private volatile long scheduledAt;
+
+    /*package*/ void enqueue(Runnable task, Executor executor) {
+        this.executor = executor;
+        tasks.add(task);
+        ServerMetrics.ACTOR_QUEUED_TASKS.increment();
+        if (scheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        scheduledAt = System.nanoTime();
+        executor.execute(this);
+    }
+
+    @Override
+    public void run() {
+        ServerMetrics.ACTOR_WAIT_TIME.record(System.nanoTime() - scheduledAt);
+        try {
+            for (int i = 0; i < MAX_TASKS_PER_TURN; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                ServerMetrics.ACTOR_QUEUED_TASKS.decrement();
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // a task added after the last poll but before the flag was cleared would be stranded otherwise
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                schedule();
+            }
+        }
+    }
+
+    public boolean isIdle() {
+        return !scheduled.get() && tasks.isEmpty();
+    }
+}
@@ -5,6 +5,7 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.WeakHashMap;
+import bgu.spl.net.srv.metrics.ServerMetrics;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -26,6 +27,7 @@ public class ActorThreadPool {
     }
 
     public void submit(Object act, Runnable r) {
+        ServerMetrics.ACTOR_QUEUED_TASKS.increment();
         synchronized (act) {
             if (!playingNow.contains(act)) {
                 playingNow.add(act);
@@ -55,7 +57,10 @@ public class ActorThreadPool {
     }
 
     private void execute(Runnable r, Object act) {
+        long queuedAt = System.nanoTime();
         threads.execute(() -> {
+            ServerMetrics.ACTOR_WAIT_TIME.record(System.nanoTime() - queuedAt);
+            ServerMetrics.ACTOR_QUEUED_TASKS.decrement();
             try {
                 r.run();
             } finally {
@@ -2,17 +2,20 @@ package bgu.spl.net.srv;
 import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.StompMessagingProtocol;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.function.Supplier;
 
 
 public abstract class BaseServer<T> implements Server<T> {
 
+    private static final int ACCEPT_BACKLOG = 1024;
+
     private final int port;
     private final Supplier<StompMessagingProtocol<T>> protocolFactory;
     private final Supplier<MessageEncoderDecoder<T>> encdecFactory;
-    private ServerSocket sock;
+    private ServerSocketChannel sock;
     private int idcounter;
     private final ConnectionsImpl <T> connections;
 
@@ -29,14 +32,16 @@ public abstract class BaseServer<T> implements Server<T> {
     @Override
     public void serve() {
 
-        try (ServerSocket serverSock = new ServerSocket(port)) {
+        try (ServerSocketChannel serverSock = ServerSocketChannel.open()) {
+            // a deep backlog so that a burst of connecting fans is not refused while the acceptor catches up
+            serverSock.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
 			System.out.println("Server started");
 
             this.sock = serverSock; //just to be able to close
 
             while (!Thread.currentThread().isInterrupted()) {
 
-                Socket clientSock = serverSock.accept();
+                SocketChannel clientSock = serverSock.accept();
                 StompMessagingProtocol<T> protocol = protocolFactory.get();
                 int connectionid=idcounter++;
                 protocol.start(connectionid, connections);
@@ -2,45 +2,49 @@ package bgu.spl.net.srv;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.StompMessagingProtocol;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
 
  public class BlockingConnectionHandler<T> implements Runnable, ConnectionHandler<T> {
 
+     // kept small on purpose: an idle client holds nothing else, and larger frames grow inside the decoder
+     private static final int READ_BUFFER_SIZE = Integer.getInteger("stomp.blocking.readBuffer", 2048);
+
      private final StompMessagingProtocol<T> protocol;
      private final MessageEncoderDecoder<T> encdec;
-     private final Socket sock;
-     private BufferedInputStream in;
-     private BufferedOutputStream out;
+     private final SocketChannel chan;
+     // a lock rather than synchronized, so a virtual thread blocked in write does not pin its carrier
+     private final ReentrantLock writeLock = new ReentrantLock();
      private volatile boolean connected = true;
 
-     public BlockingConnectionHandler(Socket sock, MessageEncoderDecoder<T> reader, StompMessagingProtocol<T> protocol) {
-         this.sock = sock;
+     public BlockingConnectionHandler(SocketChannel chan, MessageEncoderDecoder<T> reader, StompMessagingProtocol<T> protocol) {
+         this.chan = chan;
          this.encdec = reader;
          this.protocol = protocol;
      }
 
      @Override
      public void run() {
-         try (Socket sock = this.sock) {
-             int read;
-
-             in = new BufferedInputStream(sock.getInputStream());
-             out = new BufferedOutputStream(sock.getOutputStream());
+         try (SocketChannel chan = this.chan) {
+             ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
 
-              while (!protocol.shouldTerminate() && connected && (read = in.read()) >= 0) {
-                T nextMessage = encdec.decodeNextByte((byte) read);
-                if (nextMessage != null) {
-                    protocol.process(nextMessage);
+              while (!protocol.shouldTerminate() && connected && chan.read(buf) >= 0) {
+                buf.flip();
+                while (buf.hasRemaining() && !protocol.shouldTerminate()) {
+                    T nextMessage = encdec.decodeNextBytes(buf);
+                    if (nextMessage != null) {
+                        protocol.process(nextMessage);
+                    }
                 }
+                buf.clear();
             }
             protocol.terminateConnection();
-         } 
+         }
          catch (IOException ex) {
              ex.printStackTrace();
-         } 
+         }
          finally {
              connected = false;
          }
@@ -50,18 +54,28 @@ import java.net.Socket;
      @Override
      public void close() throws IOException {
          connected = false;
-         sock.close();
+         chan.close();
      }
 
      @Override
      public void send(T msg) {
+         if (msg != null) {
+             sendEncoded(new ByteBuffer[] { ByteBuffer.wrap(encdec.encode(msg)) });
+         }
+     }
+
+     @Override
+     public void sendEncoded(ByteBuffer[] parts) {
+         writeLock.lock();
          try {
-             if (msg != null) {
-                 out.write(encdec.encode(msg));
-                 out.flush();
+             ByteBuffer last = parts[parts.length - 1];
+             while (last.hasRemaining()) {
+                 chan.write(parts);
              }
          } catch (IOException e) {
              e.printStackTrace();
+         } finally {
+             writeLock.unlock();
          }
      }
  }
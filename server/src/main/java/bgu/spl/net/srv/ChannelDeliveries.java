@@ -0,0 +1,49 @@
+package bgu.spl.net.srv;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The writes of one channel, queued in message order while the channel's history lock is held and run after
+ * it is released, one at a time, by whichever thread finds the queue idle. A subscriber whose socket is full
+ * then only holds up that thread, never the lock that publishers and replaying subscribers take, and every
+ * subscriber still gets the channel's messages in message order.
+ */
+final class ChannelDeliveries {
+
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    /**
+     * Must be called under the channel history lock, so deliveries are queued in message order.
+     */
+    void add(Runnable delivery) {
+        pending.add(delivery);
+    }
+
+    /**
+     * Runs the queued deliveries, unless another thread is running them already; they are left to it then.
+     * Must be called without the channel history lock.
+     */
+    void drain() {
+        while (draining.compareAndSet(false, true)) {
+            try {
+                Runnable delivery;
+                while ((delivery = pending.poll()) != null) {
+                    try {
+                        delivery.run();
+                    } catch (RuntimeException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            } finally {
+                draining.set(false);
+            }
+            // a delivery added after the last poll but before the flag was cleared would be stranded otherwise
+            if (pending.isEmpty()) {
+                return;
+            }
+        }
+    }
+}
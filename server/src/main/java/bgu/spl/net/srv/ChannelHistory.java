@@ -0,0 +1,71 @@
+package bgu.spl.net.srv;
+
+import bgu.spl.net.impl.stomp.BroadcastFrame;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The most recent MESSAGE frames published to one channel, kept in their encoded form so that replaying
+ * them to a new subscriber only writes the same shared buffers again. Frames are evicted oldest first
+ * once the history holds too many frames or too many bytes.
+ * Callers lock the history itself around publishing and around subscribing with replay, so a new
+ * subscriber gets every frame exactly once, either from the replay or from the broadcast.
+ */
+class ChannelHistory {
+
+    private static final AtomicLong TOTAL_BYTES = new AtomicLong();
+
+    private final ArrayDeque<BroadcastFrame> frames = new ArrayDeque<>();
+    private long bytes = 0;
+
+    /**
+     * Adds a frame and evicts the oldest ones until the history is within the limits again.
+     */
+    void append(BroadcastFrame frame, int maxFrames, long maxBytes) {
+        frames.addLast(frame);
+        bytes += frame.size();
+        TOTAL_BYTES.addAndGet(frame.size());
+        while (!frames.isEmpty() && (frames.size() > maxFrames || bytes > maxBytes)) {
+            BroadcastFrame evicted = frames.removeFirst();
+            bytes -= evicted.size();
+            TOTAL_BYTES.addAndGet(-evicted.size());
+        }
+    }
+
+    /**
+     * @return up to count of the newest frames, oldest first
+     */
+    List<BroadcastFrame> last(int count) {
+        List<BroadcastFrame> result = new ArrayList<>(Math.min(count, frames.size()));
+        Iterator<BroadcastFrame> newestFirst = frames.descendingIterator();
+        while (result.size() < count && newestFirst.hasNext()) {
+            result.add(newestFirst.next());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * @return the frames published after the given message-id, oldest first
+     */
+    List<BroadcastFrame> since(long messageId) {
+        List<BroadcastFrame> result = new ArrayList<>();
+        for (BroadcastFrame frame : frames) {
+            if (frame.getMessageId() > messageId) {
+                result.add(frame);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the bytes held by the histories of all channels
+     */
+    static long totalBytes() {
+        return TOTAL_BYTES.get();
+    }
+}
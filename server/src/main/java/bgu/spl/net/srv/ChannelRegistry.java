@@ -0,0 +1,79 @@
+package bgu.spl.net.srv;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns destination names to dense int ids, assigned in order from 0 the first time a channel is subscribed to.
+ * After that the rest of the server refers to the channel by id and the name is hashed only when a frame
+ * names it. Ids are never reused.
+ * With a {@link MessageIdLog} the ids, and the message-ids of every channel, carry over to the next run.
+ */
+public class ChannelRegistry {
+
+    private final ConcurrentHashMap<String, Destination> byName = new ConcurrentHashMap<>();
+    private volatile Destination[] byId = new Destination[64];
+    private int count = 0;
+    private final MessageIdLog log;
+
+    public ChannelRegistry() {
+        this.log = null;
+    }
+
+    /*package*/ ChannelRegistry(MessageIdLog log) {
+        this.log = log;
+        for (MessageIdLog.Channel restored : log.restoredChannels()) {
+            add(new Destination(restored.id, restored.name, log, restored.reservedUntil));
+        }
+    }
+
+    /**
+     * @return the destination of the name, created with the next free id if it is new
+     */
+    public Destination intern(String name) {
+        Destination destination = byName.get(name);
+        if (destination != null) {
+            return destination;
+        }
+        synchronized (this) {
+            destination = byName.get(name);
+            if (destination == null) {
+                destination = new Destination(count, name, log, 0);
+                if (log != null) {
+                    log.channelCreated(count, name);
+                }
+                add(destination);
+            }
+            return destination;
+        }
+    }
+
+    private synchronized void add(Destination destination) {
+        Destination[] ids = byId;
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count++] = destination;
+        byId = ids;
+        byName.put(destination.name(), destination);
+    }
+
+    /**
+     * @return the destination of the name, or null if nobody ever subscribed to it
+     */
+    public Destination find(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * @return the destination with the id, or null if there is none
+     */
+    public Destination get(int id) {
+        Destination[] ids = byId;
+        return id >= 0 && id < ids.length ? ids[id] : null;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+}
@@ -6,6 +6,7 @@
 package bgu.spl.net.srv;
 
 import java.io.Closeable;
+import java.nio.ByteBuffer;
 
 /**
  * The ConnectionHandler interface for Message of type T
@@ -19,4 +20,23 @@ public interface ConnectionHandler<T> extends Closeable {
 
     void send(T msg);
 
+    /**
+     * Sends a message that was already encoded.
+     *
+     * @param parts the encoded message, written in order as a single frame.
+     * The buffers may be shared read-only views and must not be modified.
+     */
+    void sendEncoded(ByteBuffer[] parts);
+
+    /**
+     * Called once the client logged in, with the heart-beat intervals negotiated in CONNECT.
+     *
+     * @param sendEveryMs send a heart-beat whenever nothing was written for this long, 0 for never
+     * @param expectEveryMs how often the client promised to send something, 0 if it did not
+     * @return false if this kind of connection does not keep heart-beats, then the server must offer none
+     */
+    default boolean heartbeat(long sendEveryMs, long expectEveryMs) {
+        return false;
+    }
+
 }
@@ -1,18 +1,37 @@
 package bgu.spl.net.srv;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
+import bgu.spl.net.impl.data.Database;
+import bgu.spl.net.impl.stomp.BroadcastFrame;
 import bgu.spl.net.impl.stomp.StompFrame;
-import bgu.spl.net.impl.stomp.User;
+import bgu.spl.net.srv.metrics.MetricsRegistry;
+import bgu.spl.net.srv.metrics.ServerMetrics;
 
 public class ConnectionsImpl <T> implements Connections <T>{
+    // the recent messages of every channel are kept for replay, within these limits
+    private static final int HISTORY_MESSAGES = Integer.getInteger("stomp.history.messages", 100);
+    private static final long HISTORY_BYTES = Long.getLong("stomp.history.bytes", 256L << 10);
+    private static final long HISTORY_TOTAL_BYTES = Long.getLong("stomp.history.totalBytes", 64L << 20);
+
+    static {
+        MetricsRegistry.getInstance().gauge("history.bytes", ChannelHistory::totalBytes);
+    }
+
     private final Map<Integer, ConnectionHandler<T>> activeConnections = new ConcurrentHashMap<>();
-    private final Map<String, Map<Integer, String>> channelToSubscribers = new ConcurrentHashMap<>();
-    //FOR channelToSubscribers: left string-BIG channel, right Map- SUBSCRIBERS
-    private final Map<String, User> users = new ConcurrentHashMap<>();
-    private final AtomicInteger messageIdCounter = new AtomicInteger(1);
+    private final SubscriptionRegistry subscriptions;
+
+    public ConnectionsImpl() {
+        this(Database.getInstance().getSubscriptions());
+    }
+
+    public ConnectionsImpl(SubscriptionRegistry subscriptions) {
+        this.subscriptions = subscriptions;
+    }
 
     @Override
     public boolean send(int connectionId, T msg) {
@@ -24,27 +43,74 @@ public class ConnectionsImpl <T> implements Connections <T>{
         return false;
     }
 
-
+    public boolean sendEncoded(int connectionId, ByteBuffer[] parts) {
+        ConnectionHandler<T> handler = activeConnections.get(connectionId);
+        if (handler != null) {
+            handler.sendEncoded(parts);
+            return true;
+        }
+        return false;
+    }
 
     @Override
     public void send(String channel, T msg) {
-        Map<Integer, String> subs = channelToSubscribers.get(channel);
-        if (subs != null && msg instanceof StompFrame) {
-            StompFrame originalFrame = (StompFrame) msg;
-            for (Map.Entry<Integer, String> entry : subs.entrySet()) {
-                Integer connId = entry.getKey();
-                String subId = entry.getValue();
-                StompFrame personalized = new StompFrame("MESSAGE", new HashMap<>(), originalFrame.getBody());
-                personalized.getMap().putAll(originalFrame.getMap());
-                personalized.addHeader("subscription", subId);
-                personalized.addHeader("message-id", String.valueOf(messageIdCounter.getAndIncrement()));
-                send(connId, (T) personalized);
+        send(channel, msg, null);
+    }
+
+    /**
+     * Broadcasts the message, first running update in the same critical section that assigns the message-id,
+     * so whatever update changes is changed in the order the subscribers receive the messages.
+     * The lock only covers that, the history and queueing the delivery; the writes happen after it is released,
+     * see {@link ChannelDeliveries}.
+     * @param update run once before the message goes out, or null
+     */
+    public void send(String channel, T msg, Runnable update) {
+        Destination destination = subscriptions.getChannels().find(channel);
+        if (destination == null || !(msg instanceof StompFrame)) {
+            if (update != null) {
+                update.run();
+            }
+        } else {
+            long start = System.nanoTime();
+            int recipients;
+            ChannelHistory history = destination.history;
+            synchronized (history) {
+                if (update != null) {
+                    update.run();
+                }
+                // the MESSAGE frame is encoded once, with one message-id, for all subscribers and the history
+                BroadcastFrame broadcast = new BroadcastFrame((StompFrame) msg, destination.nextMessageId());
+                if (HISTORY_MESSAGES > 0) {
+                    history.append(broadcast, HISTORY_MESSAGES, historyByteLimit());
+                }
+                Subscriber[] subscribers = destination.subscribers();
+                if (ParallelFanOut.shouldSplit(destination, subscribers.length)) {
+                    destination.deliveries.add(() -> ParallelFanOut.publish(destination, subscribers, broadcast, start));
+                } else {
+                    destination.deliveries.add(() -> {
+                        for (Subscriber subscriber : subscribers) {
+                            subscriber.handler.sendEncoded(broadcast.forSubscriber(subscriber.header));
+                        }
+                    });
+                }
+                recipients = subscribers.length;
             }
+            destination.deliveries.drain();
+            ServerMetrics.FANOUT_SIZE.record(recipients);
+            ServerMetrics.FANOUT_TIME.record(System.nanoTime() - start);
 
         }
 
     }
 
+    /**
+     * @return false if the connection is gone or does not keep heart-beats, see {@link ConnectionHandler#heartbeat}
+     */
+    public boolean heartbeat(int connectionId, long sendEveryMs, long expectEveryMs) {
+        ConnectionHandler<T> handler = activeConnections.get(connectionId);
+        return handler != null && handler.heartbeat(sendEveryMs, expectEveryMs);
+    }
+
     public void addConnection(int connectionId, ConnectionHandler<T> handler) {
         activeConnections.put(connectionId, handler);
     }
@@ -52,84 +118,83 @@ public class ConnectionsImpl <T> implements Connections <T>{
     @Override
     public void disconnect(int connectionId){
         activeConnections.remove(connectionId);
-        for(Map<Integer, String> channelsubs:channelToSubscribers.values()){
-            channelsubs.remove(connectionId);
-        }
+        subscriptions.removeConnection(connectionId);
     }
 
     @Override
     public void unsubscribe(int connectionId, String channel){
-        Map<Integer,String> mychannelsubs = channelToSubscribers.get(channel);
-        if(mychannelsubs!=null)
-            mychannelsubs.remove(connectionId);
+        subscriptions.unsubscribeChannel(connectionId, channel);
     }
 
+    /**
+     * @return the channel of the removed subscription, or null if the connection has no such subscription
+     */
+    public String unsubscribeById(int connectionId, String subscriptionId) {
+        return subscriptions.unsubscribe(connectionId, Integer.parseInt(subscriptionId));
+    }
 
+    /**
+     * @return true if the connection has a subscription with this id
+     */
+    public boolean hasSubscription(int connectionId, String subscriptionId) {
+        return subscriptions.channelOf(connectionId, Integer.parseInt(subscriptionId)) != null;
+    }
 
+    /**
+     * Does nothing if the connection already uses the subscription id, see {@link #hasSubscription}.
+     * @param subscriptionId the subscription id of the frame, the protocol only accepts non-negative integers
+     */
     @Override
     public void subscribe(int connectionId,String channel, String subscriptionId){
-        channelToSubscribers.computeIfAbsent(channel, k -> new ConcurrentHashMap<>())
-                .put(connectionId, subscriptionId);
-
-
+        subscriptions.subscribe(connectionId, channel, Integer.parseInt(subscriptionId), activeConnections.get(connectionId));
     }
 
-    public User getUser(String username) {
-        return users.get(username);
+    /**
+     * Subscribes and first sends the subscriber a snapshot and the messages the channel kept, either the last ones
+     * or the ones after a message-id. No message published meanwhile is missed or delivered twice.
+     *
+     * @param replayLast how many of the newest kept messages to send, ignored if replaySince is not negative
+     * @param replaySince send the kept messages published after this message-id, or -1
+     * @param snapshot builds a message sent before the replay, taken while publishing to the channel is held off;
+     * null for none, and it may return null when there is nothing to send. It is given the channel's message-ids:
+     * the one it takes is above every message the snapshot includes and below every one it does not.
+     * The snapshot and the replay are queued behind the channel's earlier writes and ahead of every later one;
+     * when another thread is writing the channel they are left to it and may still be on their way on return.
+     */
+    public void subscribe(int connectionId, String channel, String subscriptionId, int replayLast, long replaySince,
+                          Function<LongSupplier, T> snapshot) {
+        int id = Integer.parseInt(subscriptionId);
+        Destination destination = subscriptions.getChannels().intern(channel);
+        ChannelHistory history = destination.history;
+        synchronized (history) {
+            T first = snapshot != null ? snapshot.apply(destination::nextMessageId) : null;
+            List<BroadcastFrame> replay = replaySince >= 0 ? history.since(replaySince) : history.last(replayLast);
+            // queued before any publish that already goes to the new subscription
+            destination.deliveries.add(() -> {
+                if (first != null) {
+                    send(connectionId, first);
+                }
+                for (BroadcastFrame frame : replay) {
+                    sendEncoded(connectionId, frame.forSubscriber(id));
+                }
+            });
+            subscriptions.subscribe(connectionId, channel, id, activeConnections.get(connectionId));
+        }
+        destination.deliveries.drain();
     }
 
-    public void addUser(String username, String password) {
-        users.put(username, new User(username, password));
+    /**
+     * @return the byte limit of one channel's history; once all the histories together pass their budget,
+     * every channel that publishes is trimmed to an equal share of it
+     */
+    private long historyByteLimit() {
+        if (ChannelHistory.totalBytes() <= HISTORY_TOTAL_BYTES) {
+            return HISTORY_BYTES;
+        }
+        return Math.min(HISTORY_BYTES, HISTORY_TOTAL_BYTES / Math.max(1, subscriptions.getChannels().size()));
     }
 
     public boolean isSubscribed(int connectionId, String channel) {
-        Map<Integer, String> subs = channelToSubscribers.get(channel);
-        return subs != null && subs.containsKey(connectionId);
-    }
-
-    public enum LoginStatus { OK, NEW_USER, WRONG_PASSWORD, ALREADY_LOGGED_IN, MISSING_FIELDS }
-
-    public LoginStatus tryLogin(String username, String passcode, int connectionId) {
-        if (username == null || passcode == null) 
-            return LoginStatus.MISSING_FIELDS;
-        final LoginStatus[] res = new LoginStatus[] { LoginStatus.MISSING_FIELDS };
-        users.compute(username, (k, u) -> {
-            if (u == null) {
-                User nu = new User(username, passcode);
-                nu.setLogged(true);
-                nu.setConnectionId(connectionId);
-                res[0] = LoginStatus.NEW_USER;
-                return nu;
-            }
-
-            if (!u.getPassword().equals(passcode)) {
-                res[0] = LoginStatus.WRONG_PASSWORD;
-                return u;
-            }
-
-            if (u.isLogged()) {
-                res[0] = LoginStatus.ALREADY_LOGGED_IN;
-                return u;
-            }
-
-            u.setLogged(true);
-            u.setConnectionId(connectionId);
-            res[0] = LoginStatus.OK;
-            return u;
-        });
-
-        return res[0];
+        return subscriptions.isSubscribed(connectionId, channel);
     }
-
-    public void logout(String username, int connectionId) {
-    if (username == null) return;
-    users.computeIfPresent(username, (k, u) -> {
-        if (u.getConnectionId() == connectionId) {
-            u.setLogged(false);
-            u.setConnectionId(-1);
-        }
-        return u;
-    });
 }
-    
-}   
@@ -0,0 +1,178 @@
+package bgu.spl.net.srv;
+
+import java.util.Arrays;
+
+/**
+ * A channel interned by {@link ChannelRegistry}: its dense id, its name, who is subscribed to it and
+ * the messages it kept.
+ * Subscribers are kept in a dense array with a connectionId -> position index, guarded by the destination.
+ * Publishing reads an immutable copy of that array instead, taken after the last change, so a broadcast is
+ * a plain loop that takes no lock and allocates no iterator. The copy is made by the first publish after
+ * subscribers changed, so a burst of subscribes costs one copy, not one each.
+ */
+public final class Destination {
+
+    private static final Subscriber[] NONE = new Subscriber[0];
+
+    // a message-id is the channel id above the channel's own sequence number, so ids are unique across channels
+    /*package*/ static final int SEQUENCE_BITS = 40;
+    // sequence numbers reserved in the MessageIdLog at a time
+    private static final int SEQUENCE_BLOCK = Math.max(1, Integer.getInteger("stomp.msgid.block", 4096));
+
+    private final int id;
+    private final String name;
+    /*package*/ final ChannelHistory history = new ChannelHistory();
+    // what publishes and replays queued under the history lock, written after it is released
+    /*package*/ final ChannelDeliveries deliveries = new ChannelDeliveries();
+    // set once the channel is delivered by ParallelFanOut, and never cleared; guarded by history
+    /*package*/ boolean parallelFanOut = false;
+    // the last snapshot split into fan-out lanes, and the snapshot it was split from; only used by deliveries
+    private Subscriber[][] lanes;
+    private Subscriber[] lanesSource;
+
+    // connectionId -> position in members
+    private final IntIntMap positions = new IntIntMap();
+    private Subscriber[] members = new Subscriber[4];
+    private int count = 0;
+    // null while members changed since the last copy
+    private volatile Subscriber[] snapshot = NONE;
+
+    private final MessageIdLog log;
+    // guarded by history
+    private long nextSequence;
+    private long reservedUntil;
+
+    /**
+     * @param log where sequence blocks are reserved, or null when message-ids start over on every run
+     * @param firstSequence the first sequence number the channel may use
+     */
+    /*package*/ Destination(int id, String name, MessageIdLog log, long firstSequence) {
+        this.id = id;
+        this.name = name;
+        this.log = log;
+        this.nextSequence = Math.max(1, firstSequence);
+        this.reservedUntil = log != null ? nextSequence : Long.MAX_VALUE;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public synchronized int subscriberCount() {
+        return count;
+    }
+
+    /**
+     * @return a new message-id, greater than every id the channel handed out before, in this run or an earlier one.
+     * Must be called under the history lock.
+     */
+    /*package*/ long nextMessageId() {
+        if (nextSequence == reservedUntil) {
+            reservedUntil = nextSequence + SEQUENCE_BLOCK;
+            log.reserved(id, reservedUntil);
+        }
+        return ((long) id << SEQUENCE_BITS) | nextSequence++;
+    }
+
+    /**
+     * @return the subscribers as of the last change, never modified; callers must not modify it either
+     */
+    /*package*/ Subscriber[] subscribers() {
+        Subscriber[] current = snapshot;
+        return current != null ? current : takeSnapshot();
+    }
+
+    private synchronized Subscriber[] takeSnapshot() {
+        if (snapshot == null) {
+            snapshot = count == 0 ? NONE : Arrays.copyOf(members, count);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the given snapshot split by {@link ParallelFanOut#lane}, kept until the snapshot changes.
+     * Must be called from a delivery of the channel, which run one at a time.
+     */
+    /*package*/ Subscriber[][] subscribersByLane(Subscriber[] snapshot, int laneCount) {
+        if (lanesSource == snapshot && lanes != null) {
+            return lanes;
+        }
+        int[] sizes = new int[laneCount];
+        for (Subscriber subscriber : snapshot) {
+            sizes[ParallelFanOut.lane(subscriber.connectionId)]++;
+        }
+        Subscriber[][] split = new Subscriber[laneCount][];
+        for (int i = 0; i < laneCount; i++) {
+            split[i] = new Subscriber[sizes[i]];
+            sizes[i] = 0;
+        }
+        for (Subscriber subscriber : snapshot) {
+            int lane = ParallelFanOut.lane(subscriber.connectionId);
+            split[lane][sizes[lane]++] = subscriber;
+        }
+        lanes = split;
+        lanesSource = snapshot;
+        return split;
+    }
+
+    /**
+     * Adds the subscriber, replacing the connection's earlier subscription on this channel if it had one.
+     * @return the subscription id that was replaced, or MISSING
+     */
+    /*package*/ synchronized int add(Subscriber subscriber) {
+        int replaced = IntIntMap.MISSING;
+        int position = positions.get(subscriber.connectionId);
+        if (position != IntIntMap.MISSING) {
+            replaced = members[position].subscriptionId;
+        } else {
+            if (count == members.length) {
+                members = Arrays.copyOf(members, count * 2);
+            }
+            position = count++;
+            positions.put(subscriber.connectionId, position);
+        }
+        members[position] = subscriber;
+        snapshot = null;
+        return replaced;
+    }
+
+    /**
+     * @return the subscription id the connection had on this channel, or MISSING
+     */
+    /*package*/ synchronized int remove(int connectionId) {
+        int position = positions.remove(connectionId);
+        if (position == IntIntMap.MISSING) {
+            return IntIntMap.MISSING;
+        }
+        int subscriptionId = members[position].subscriptionId;
+        // the last member fills the hole so the array stays dense
+        Subscriber last = members[--count];
+        members[count] = null;
+        if (position != count) {
+            members[position] = last;
+            positions.put(last.connectionId, position);
+        }
+        snapshot = null;
+        return subscriptionId;
+    }
+
+    /**
+     * Removes the connection only if its subscription on this channel has the given id.
+     */
+    /*package*/ synchronized boolean remove(int connectionId, int subscriptionId) {
+        int position = positions.get(connectionId);
+        if (position == IntIntMap.MISSING || members[position].subscriptionId != subscriptionId) {
+            return false;
+        }
+        remove(connectionId);
+        return true;
+    }
+
+    /*package*/ synchronized boolean contains(int connectionId) {
+        return positions.containsKey(connectionId);
+    }
+}
@@ -0,0 +1,164 @@
+package bgu.spl.net.srv;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing map from int to int that stores keys and values in two flat arrays, with no boxing
+ * and no entry objects. Keys and values must not be negative; -1 stands for "no entry".
+ * Not thread safe, callers guard it.
+ */
+public class IntIntMap {
+
+    public static final int MISSING = -1;
+
+    /**
+     * Receives the entries of a map, see {@link #forEach}.
+     */
+    public interface EntryVisitor {
+        void visit(int key, int value);
+    }
+
+    private int[] keys;
+    private int[] values;
+    private int size = 0;
+    private int mask;
+
+    public IntIntMap() {
+        this(4);
+    }
+
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, MISSING);
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the value of the key, or MISSING
+     */
+    public int get(int key) {
+        if (key < 0) {
+            return MISSING;
+        }
+        int slot = slotOf(key);
+        return keys[slot] == key ? values[slot] : MISSING;
+    }
+
+    public boolean containsKey(int key) {
+        return key >= 0 && keys[slotOf(key)] == key;
+    }
+
+    /**
+     * @return the previous value of the key, or MISSING
+     */
+    public int put(int key, int value) {
+        if (key < 0 || value < 0) {
+            throw new IllegalArgumentException("negative key or value");
+        }
+        int slot = slotOf(key);
+        if (keys[slot] == key) {
+            int previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+        return MISSING;
+    }
+
+    /**
+     * @return the removed value, or MISSING if the key was not there
+     */
+    public int remove(int key) {
+        if (key < 0) {
+            return MISSING;
+        }
+        int slot = slotOf(key);
+        if (keys[slot] != key) {
+            return MISSING;
+        }
+        int removed = values[slot];
+        // shift the following entries of the probe sequence back, so lookups never need tombstones
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != MISSING) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = MISSING;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Removes the key only if it maps to the given value.
+     * @return true if it was removed
+     */
+    public boolean remove(int key, int value) {
+        if (get(key) != value) {
+            return false;
+        }
+        remove(key);
+        return true;
+    }
+
+    public void forEach(EntryVisitor visitor) {
+        int[] keys = this.keys;
+        int[] values = this.values;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != MISSING) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the slot that holds the key, or the empty slot where it would go
+     */
+    private int slotOf(int key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != MISSING && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, MISSING);
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != MISSING) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package bgu.spl.net.srv;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An actor executor without shared locks: every actor owns an {@link ActorMailbox} and tasks of the
+ * same actor run one at a time, in submission order, just like in {@link ActorThreadPool}.
+ */
+public class MailboxActorPool {
+
+    private final ExecutorService threads;
+
+    public MailboxActorPool(int threads) {
+        this.threads = Executors.newFixedThreadPool(threads);
+    }
+
+    public void submit(ActorMailbox mailbox, Runnable r) {
+        mailbox.enqueue(r, threads);
+    }
+
+    public void shutdown() {
+        threads.shutdownNow();
+    }
+
+}
@@ -0,0 +1,116 @@
+package bgu.spl.net.srv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes channel ids and message-ids survive a restart.
+ * It is an append-only text file with a line "C id name" for every interned channel and a line "R id next"
+ * every time a channel reserves a block of sequence numbers. Only the reservations reach the disk, so a
+ * channel that publishes a block of messages writes and forces one line; after a crash the unused rest of
+ * the block is skipped, never handed out twice.
+ * The file is rewritten with one line per kind and channel when it is opened.
+ */
+/*package*/ final class MessageIdLog {
+
+    /*package*/ static final class Channel {
+        final int id;
+        final String name;
+        long reservedUntil;
+
+        Channel(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private final FileChannel file;
+    private final List<Channel> restored;
+
+    private MessageIdLog(FileChannel file, List<Channel> restored) {
+        this.file = file;
+        this.restored = restored;
+    }
+
+    /**
+     * Reads what an earlier run left in the file, compacts it and opens it for appending.
+     */
+    /*package*/ static MessageIdLog open(Path path) throws IOException {
+        List<Channel> channels = new ArrayList<>();
+        if (Files.exists(path)) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                String[] fields = line.split(" ", 3);
+                if (fields.length < 3) {
+                    continue; // the last line of a crashed run may be torn
+                }
+                int id = Integer.parseInt(fields[1]);
+                if (fields[0].equals("C") && id == channels.size()) {
+                    channels.add(new Channel(id, fields[2]));
+                } else if (fields[0].equals("R") && id < channels.size()) {
+                    Channel channel = channels.get(id);
+                    channel.reservedUntil = Math.max(channel.reservedUntil, Long.parseLong(fields[2]));
+                }
+            }
+        }
+
+        Path compacted = path.resolveSibling(path.getFileName() + ".tmp");
+        StringBuilder sb = new StringBuilder();
+        for (Channel channel : channels) {
+            sb.append("C ").append(channel.id).append(' ').append(channel.name).append('\n');
+            sb.append("R ").append(channel.id).append(' ').append(channel.reservedUntil).append('\n');
+        }
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, sb.toString());
+            out.force(true);
+        }
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new MessageIdLog(file, channels);
+    }
+
+    /**
+     * @return the channels of the earlier runs, by id, with the first sequence number they may use
+     */
+    /*package*/ List<Channel> restoredChannels() {
+        return restored;
+    }
+
+    /*package*/ synchronized void channelCreated(int id, String name) {
+        append("C " + id + " " + name + "\n", false);
+    }
+
+    /**
+     * Returns once the reservation is on disk, so no id below next is handed out before that.
+     */
+    /*package*/ synchronized void reserved(int id, long next) {
+        append("R " + id + " " + next + "\n", true);
+    }
+
+    private void append(String line, boolean force) {
+        try {
+            writeFully(file, line);
+            if (force) {
+                file.force(false);
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private static void writeFully(FileChannel out, String text) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package bgu.spl.net.srv;
+
+import bgu.spl.net.api.MessageEncoderDecoder;
+import bgu.spl.net.api.StompMessagingProtocol;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.function.Supplier;
+
+/**
+ * A reactor server with one acceptor thread and several sub-reactors, each running its own selector.
+ * Every accepted connection is owned by one sub-reactor for its whole life, so reads, writes and
+ * interest-ops updates of a connection always go through the same selector.
+ */
+public class MultiReactor<T> implements Server<T> {
+
+    public enum Balance { ROUND_ROBIN, LEAST_LOADED }
+
+    private final int port;
+    private final Supplier<StompMessagingProtocol<T>> protocolFactory;
+    private final Supplier<MessageEncoderDecoder<T>> readerFactory;
+    private final MailboxActorPool pool;
+    private final int numReactors;
+    private final Balance balance;
+    private final ConnectionsImpl<T> connections;
+    private SubReactor<T>[] reactors;
+    private ServerSocketChannel serverSock;
+    private int idCounter;
+    private int nextReactor;
+
+    public MultiReactor(
+            int numThreads,
+            int numReactors,
+            Balance balance,
+            int port,
+            Supplier<StompMessagingProtocol<T>> protocolFactory,
+            Supplier<MessageEncoderDecoder<T>> readerFactory) {
+
+        this.pool = new MailboxActorPool(numThreads);
+        this.numReactors = numReactors;
+        this.balance = balance;
+        this.port = port;
+        this.protocolFactory = protocolFactory;
+        this.readerFactory = readerFactory;
+        this.idCounter = 0;
+        this.nextReactor = 0;
+        this.connections = new ConnectionsImpl<>();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void serve() {
+        try (ServerSocketChannel serverSock = ServerSocketChannel.open()) {
+            this.serverSock = serverSock; //just to be able to close
+
+            reactors = (SubReactor<T>[]) new SubReactor<?>[numReactors];
+            for (int i = 0; i < numReactors; i++) {
+                reactors[i] = new SubReactor<>(pool);
+                Thread selectorThread = new Thread(reactors[i], "sub-reactor-" + i);
+                selectorThread.start();
+            }
+
+            serverSock.bind(new InetSocketAddress(port));
+            System.out.println("Server started");
+
+            // the acceptor blocks in accept, the selectors only ever see reads and writes
+            while (!Thread.currentThread().isInterrupted()) {
+                SocketChannel clientChan = serverSock.accept();
+                clientChan.configureBlocking(false);
+                SubReactor<T> owner = chooseReactor();
+                int connectionId = idCounter++;
+                StompMessagingProtocol<T> stompMessagingProtocol = protocolFactory.get();
+                stompMessagingProtocol.start(connectionId, connections);
+                final NonBlockingConnectionHandler<T> handler = new NonBlockingConnectionHandler<T>(
+                        readerFactory.get(),
+                        stompMessagingProtocol,
+                        clientChan,
+                        owner);
+                connections.addConnection(connectionId, handler);
+                owner.register(clientChan, handler);
+            }
+
+        } catch (ClosedChannelException ex) {
+            //do nothing - server was requested to be closed
+        } catch (IOException ex) {
+            //this is an error
+            ex.printStackTrace();
+        }
+
+        closeReactors();
+        System.out.println("server closed!!!");
+        pool.shutdown();
+    }
+
+    private SubReactor<T> chooseReactor() {
+        if (balance == Balance.LEAST_LOADED) {
+            SubReactor<T> best = reactors[0];
+            for (SubReactor<T> candidate : reactors) {
+                if (candidate.load() < best.load()) {
+                    best = candidate;
+                }
+            }
+            return best;
+        }
+        SubReactor<T> next = reactors[nextReactor];
+        nextReactor = (nextReactor + 1) % reactors.length;
+        return next;
+    }
+
+    private void closeReactors() {
+        if (reactors == null) {
+            return;
+        }
+        for (SubReactor<T> reactor : reactors) {
+            try {
+                if (reactor != null) {
+                    reactor.close();
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (serverSock != null) {
+            serverSock.close();
+        }
+        closeReactors();
+    }
+
+}
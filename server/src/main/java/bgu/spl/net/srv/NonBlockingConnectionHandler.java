@@ -2,6 +2,7 @@ package bgu.spl.net.srv;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.StompMessagingProtocol;
+import bgu.spl.net.srv.metrics.ServerMetrics;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -9,23 +10,90 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
 
-public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
+public final class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
+
+    /**
+     * What a handler does once the bytes waiting to be written to its client pass the high watermark.
+     */
+    public enum SlowConsumerPolicy {
+        /** drop the oldest queued broadcast messages until the queue is below the low watermark */
+        DROP_OLDEST_MESSAGE,
+        /** send an ERROR frame and close the connection once it is written */
+        DISCONNECT,
+        /**
+         * stop reading the client's input until the queue is below the low watermark;
+         * this only slows down what the client itself produces, broadcasts to it still queue up
+         */
+        PAUSE_READ
+    }
 
     private static final int BUFFER_ALLOCATION_SIZE = 1 << 13; //8k
     private static final ConcurrentLinkedQueue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+    private static final int MAX_BATCH_BYTES = Integer.getInteger("stomp.write.maxBatchBytes", 1 << 16);
+    private static final int MAX_BATCH_BUFFERS = 64;
+    // parts up to this size are copied into pooled direct buffers instead of getting their own iovec
+    private static final int COALESCE_THRESHOLD = 1 << 10;
+
+    private static final long HIGH_WATERMARK = Long.getLong("stomp.outbound.highWatermark", 4L << 20);
+    private static final long LOW_WATERMARK = Long.getLong("stomp.outbound.lowWatermark", 1L << 20);
+    private static final SlowConsumerPolicy POLICY = SlowConsumerPolicy.valueOf(
+            System.getProperty("stomp.outbound.policy", SlowConsumerPolicy.DROP_OLDEST_MESSAGE.name()));
+    private static final byte[] SLOW_CONSUMER_ERROR =
+            "ERROR\nmessage:Slow consumer\n\nToo many messages are waiting to be sent to this client\n\u0000"
+                    .getBytes(StandardCharsets.UTF_8);
+
+    // a client that has not logged in by then is closed, 0 waits forever
+    private static final long CONNECT_TIMEOUT_MS = Long.getLong("stomp.connect.timeoutMs", 30000);
+    // a logged in client that negotiated no heart-beat is closed after this long without input, 0 never
+    private static final long IDLE_TIMEOUT_MS = Long.getLong("stomp.idle.timeoutMs", 0);
+    private static final ByteBuffer HEARTBEAT = ByteBuffer.wrap(new byte[] { '\n' }).asReadOnlyBuffer();
+
+    private static final AtomicLong TOTAL_QUEUED_BYTES = new AtomicLong();
+    private static final AtomicLong TOTAL_DROPPED_FRAMES = new AtomicLong();
 
     private final StompMessagingProtocol<T> protocol;
     private final MessageEncoderDecoder<T> encdec;
-    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final Queue<OutboundFrame> writeQueue = new ConcurrentLinkedQueue<>();
     private final SocketChannel chan;
-    private final Reactor reactor;
+    private final SubReactor<T> reactor;
+    private final ActorMailbox mailbox = new ActorMailbox();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final IntSupplier interestOps = this::interestOps;
+    private volatile boolean readPaused = false;
+    // set once the slow consumer ERROR is queued: nothing else is queued and the connection closes after it
+    private final AtomicBoolean closeAfterFlush = new AtomicBoolean(false);
+
+    // the batch being written, only touched by the selector thread
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_BUFFERS];
+    private final boolean[] pooled = new boolean[MAX_BATCH_BUFFERS];
+    private int batchStart = 0;
+    private int batchEnd = 0;
+
+    // the heart-beat and idle state, only touched by the selector thread
+    private final TimerWheel.Timeout readTimer = new TimerWheel.Timeout(this::readTimerExpired);
+    private final TimerWheel.Timeout writeTimer = new TimerWheel.Timeout(this::writeTimerExpired);
+    private long lastRead;
+    private long lastWrite;
+    private long readTimeoutMs = 0;
+    private long heartbeatMs = 0;
+
+    private volatile long writeSyscalls = 0;
+    private volatile long framesWritten = 0;
+    private volatile long bytesWritten = 0;
 
     public NonBlockingConnectionHandler(
             MessageEncoderDecoder<T> reader,
             StompMessagingProtocol<T> protocol,
             SocketChannel chan,
-            Reactor reactor) {
+            SubReactor<T> reactor) {
         this.chan = chan;
         this.encdec = reader;
         this.protocol = protocol;
@@ -43,11 +111,12 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
         }
 
         if (success) {
+            lastRead = reactor.now();
             buf.flip();
             return () -> {
                 try {
                     while (buf.hasRemaining()) {
-                        T nextMessage = encdec.decodeNextByte(buf.get());
+                        T nextMessage = encdec.decodeNextBytes(buf);
                         if (nextMessage != null) {
                             protocol.process(nextMessage);
                         }
@@ -64,38 +133,323 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
 
     }
 
+    /**
+     * @return the mailbox that serializes this connection's read tasks on the worker pool
+     */
+    public ActorMailbox getMailbox() {
+        return mailbox;
+    }
+
     public void close() {
         try {
-            chan.close();
+            if (closed.compareAndSet(false, true)) {
+                chan.close();
+                reactor.runOnSelectorThread(() -> {
+                    reactor.cancel(readTimer);
+                    reactor.cancel(writeTimer);
+                    releaseBatch();
+                });
+                TOTAL_QUEUED_BYTES.addAndGet(-queuedBytes.getAndSet(0));
+                writeQueue.clear();
+                reactor.connectionClosed(this);
+            }
         } catch (IOException ex) {
             ex.printStackTrace();
         }
     }
 
+    /**
+     * Starts the time the client has to log in, run on the selector thread once the channel is registered.
+     */
+    /*package*/ void registered() {
+        lastRead = lastWrite = reactor.now();
+        readTimeoutMs = CONNECT_TIMEOUT_MS;
+        if (readTimeoutMs > 0) {
+            reactor.schedule(readTimer, lastRead + readTimeoutMs);
+        }
+    }
+
+    /**
+     * Ends the login timeout and starts the negotiated heart-beats. A client that promised to send every
+     * expectEveryMs is closed once twice that passed without any input from it.
+     */
+    @Override
+    public boolean heartbeat(long sendEveryMs, long expectEveryMs) {
+        reactor.runOnSelectorThread(() -> {
+            if (closed.get()) {
+                return;
+            }
+            heartbeatMs = sendEveryMs;
+            readTimeoutMs = expectEveryMs > 0 ? 2 * expectEveryMs : IDLE_TIMEOUT_MS;
+            if (readTimeoutMs > 0) {
+                reactor.schedule(readTimer, lastRead + readTimeoutMs);
+            } else {
+                reactor.cancel(readTimer);
+            }
+            if (heartbeatMs > 0) {
+                reactor.schedule(writeTimer, lastWrite + heartbeatMs);
+            } else {
+                reactor.cancel(writeTimer);
+            }
+        });
+        return true;
+    }
+
+    // the timers fire at most a tick late and may fire early, so both check the real idle time first
+
+    private void readTimerExpired() {
+        if (closed.get() || readTimeoutMs <= 0) {
+            return;
+        }
+        long deadline = lastRead + readTimeoutMs;
+        if (reactor.now() < deadline) {
+            reactor.schedule(readTimer, deadline);
+            return;
+        }
+        ServerMetrics.CONNECTIONS_REAPED.increment();
+        close();
+    }
+
+    private void writeTimerExpired() {
+        if (closed.get() || heartbeatMs <= 0) {
+            return;
+        }
+        long deadline = lastWrite + heartbeatMs;
+        if (reactor.now() < deadline) {
+            reactor.schedule(writeTimer, deadline);
+            return;
+        }
+        // with bytes still waiting for the socket the client is not starved, a heart-beat would only queue up
+        if (batchStart == batchEnd && writeQueue.isEmpty()) {
+            ServerMetrics.HEARTBEATS_SENT.increment();
+            enqueue(new OutboundFrame(new ByteBuffer[] { HEARTBEAT.duplicate() }, true));
+        }
+        reactor.schedule(writeTimer, reactor.now() + heartbeatMs);
+    }
+
     public boolean isClosed() {
         return !chan.isOpen();
     }
 
+    /**
+     * Ends the protocol side of a closed connection, run on the connection's mailbox
+     * so it never overlaps a frame that is still being processed.
+     */
+    /*package*/ void terminate() {
+        protocol.terminateConnection();
+    }
+
+    /**
+     * Drains the write queue with gathering writes. Queued frames are gathered into one batch of at most
+     * MAX_BATCH_BYTES, small parts are coalesced into pooled direct buffers, and a batch the socket only
+     * partially accepted is resumed on the next write event.
+     */
     public void continueWrite() {
-        while (!writeQueue.isEmpty()) {
-            try {
-                ByteBuffer top = writeQueue.peek();
-                chan.write(top);
-                if (top.hasRemaining()) {
-                    return;
+        try {
+            while (batchStart < batchEnd || fillBatch()) {
+                long written = chan.write(batch, batchStart, batchEnd - batchStart);
+                if (written > 0) {
+                    lastWrite = reactor.now();
+                }
+                writeSyscalls++;
+                bytesWritten += written;
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    if (pooled[batchStart]) {
+                        releaseBuffer(batch[batchStart]);
+                    }
+                    batch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    return; // the socket buffer is full, wait for the next write event
+                }
+                batchStart = batchEnd = 0;
+                if (readPaused && queuedBytes.get() <= LOW_WATERMARK) {
+                    readPaused = false;
+                    reactor.updateInterestedOps(chan, interestOps);
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            close();
+            return;
+        }
+
+        if (protocol.shouldTerminate() || closeAfterFlush.get()) close();
+        else reactor.updateInterestedOps(chan, interestOps);
+    }
+
+    /**
+     * Moves whole frames from the write queue into the batch.
+     * @return true if anything is left to write
+     */
+    private boolean fillBatch() {
+        int count = 0;
+        long bytes = 0;
+        ByteBuffer coalesced = null;
+        OutboundFrame frame;
+        while (bytes < MAX_BATCH_BYTES && (frame = writeQueue.peek()) != null) {
+            if (count + frame.parts.length > MAX_BATCH_BUFFERS) {
+                break;
+            }
+            if (!writeQueue.remove(frame)) {
+                continue; // dropped by a sender in the meantime
+            }
+            dequeued(frame);
+            framesWritten++;
+            for (ByteBuffer part : frame.parts) {
+                int size = part.remaining();
+                bytes += size;
+                if (size > COALESCE_THRESHOLD) {
+                    if (coalesced != null) {
+                        coalesced.flip();
+                        coalesced = null;
+                    }
+                    pooled[count] = false;
+                    batch[count++] = part;
                 } else {
-                    writeQueue.remove();
+                    if (coalesced == null || coalesced.remaining() < size) {
+                        if (coalesced != null) {
+                            coalesced.flip();
+                        }
+                        coalesced = leaseBuffer();
+                        pooled[count] = true;
+                        batch[count++] = coalesced;
+                    }
+                    coalesced.put(part);
                 }
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                close();
             }
         }
+        if (coalesced != null) {
+            coalesced.flip();
+        }
+        batchStart = 0;
+        batchEnd = count;
+        return count > 0;
+    }
 
-        if (writeQueue.isEmpty()) {
-            if (protocol.shouldTerminate()) close();
-            else reactor.updateInterestedOps(chan, SelectionKey.OP_READ);
+    /**
+     * Gives the pooled buffers of a batch left unwritten back to the pool; the selector thread owns the batch.
+     */
+    private void releaseBatch() {
+        for (int i = batchStart; i < batchEnd; i++) {
+            if (pooled[i]) {
+                releaseBuffer(batch[i]);
+            }
+            batch[i] = null;
         }
+        batchStart = batchEnd = 0;
+    }
+
+    private int interestOps() {
+        boolean pendingWrites = batchStart < batchEnd || !writeQueue.isEmpty();
+        return (readPaused ? 0 : SelectionKey.OP_READ) | (pendingWrites ? SelectionKey.OP_WRITE : 0);
+    }
+
+    private void enqueue(OutboundFrame frame) {
+        if (closeAfterFlush.get() || closed.get()) {
+            return;
+        }
+        writeQueue.add(frame);
+        TOTAL_QUEUED_BYTES.addAndGet(frame.bytes);
+        if (queuedBytes.addAndGet(frame.bytes) > HIGH_WATERMARK) {
+            onHighWatermark();
+        }
+        reactor.updateInterestedOps(chan, interestOps);
+    }
+
+    private void dequeued(OutboundFrame frame) {
+        queuedBytes.addAndGet(-frame.bytes);
+        TOTAL_QUEUED_BYTES.addAndGet(-frame.bytes);
+    }
+
+    private void onHighWatermark() {
+        switch (POLICY) {
+            case DROP_OLDEST_MESSAGE:
+                dropMessagesWhileAbove(LOW_WATERMARK);
+                break;
+            case DISCONNECT:
+                // senders on several threads can cross the watermark together, only one of them queues the ERROR
+                if (closeAfterFlush.compareAndSet(false, true)) {
+                    // the pending messages will not be read anyway, free them and send the ERROR right away
+                    dropMessagesWhileAbove(0);
+                    OutboundFrame error = new OutboundFrame(
+                            new ByteBuffer[] { ByteBuffer.wrap(SLOW_CONSUMER_ERROR) }, false);
+                    writeQueue.add(error);
+                    queuedBytes.addAndGet(error.bytes);
+                    TOTAL_QUEUED_BYTES.addAndGet(error.bytes);
+                }
+                break;
+            case PAUSE_READ:
+                readPaused = true;
+                break;
+        }
+    }
+
+    private void dropMessagesWhileAbove(long watermark) {
+        Iterator<OutboundFrame> it = writeQueue.iterator();
+        while (queuedBytes.get() > watermark && it.hasNext()) {
+            OutboundFrame frame = it.next();
+            // remove(frame) and not it.remove(), so only one of the writer and the senders gets each frame
+            if (frame.droppable && writeQueue.remove(frame)) {
+                dequeued(frame);
+                droppedFrames.incrementAndGet();
+                TOTAL_DROPPED_FRAMES.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the bytes queued for this client and not yet handed to the socket
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public int getQueuedFrames() {
+        return writeQueue.size();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public boolean isReadPaused() {
+        return readPaused;
+    }
+
+    /**
+     * @return the bytes queued for all the reactor clients of this process
+     */
+    public static long getTotalQueuedBytes() {
+        return TOTAL_QUEUED_BYTES.get();
+    }
+
+    public static long getTotalDroppedFrames() {
+        return TOTAL_DROPPED_FRAMES.get();
+    }
+
+    public long getWriteSyscalls() {
+        return writeSyscalls;
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return how many write calls batching saved compared to writing every frame on its own
+     */
+    public long getSyscallsSaved() {
+        return Math.max(0, framesWritten - writeSyscalls);
+    }
+
+    public double getAverageBytesPerWrite() {
+        long calls = writeSyscalls;
+        return calls == 0 ? 0 : (double) bytesWritten / calls;
     }
 
     private static ByteBuffer leaseBuffer() {
@@ -115,8 +469,32 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
     @Override
     public void send(T msg) {
         if (msg != null) {
-            writeQueue.add(ByteBuffer.wrap(encdec.encode(msg)));
-        reactor.updateInterestedOps(chan, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            enqueue(new OutboundFrame(new ByteBuffer[] { ByteBuffer.wrap(encdec.encode(msg)) }, false));
+        }
+    }
+
+    /**
+     * Queues a broadcast MESSAGE. Unlike frames passed to {@link #send}, these may be dropped
+     * when the client falls too far behind.
+     */
+    @Override
+    public void sendEncoded(ByteBuffer[] parts) {
+        enqueue(new OutboundFrame(parts, true));
     }
+
+    private static final class OutboundFrame {
+        final ByteBuffer[] parts;
+        final long bytes;
+        final boolean droppable;
+
+        OutboundFrame(ByteBuffer[] parts, boolean droppable) {
+            long size = 0;
+            for (ByteBuffer part : parts) {
+                size += part.remaining();
+            }
+            this.parts = parts;
+            this.bytes = size;
+            this.droppable = droppable;
+        }
     }
 }
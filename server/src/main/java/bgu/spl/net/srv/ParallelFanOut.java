@@ -0,0 +1,88 @@
+package bgu.spl.net.srv;
+
+import bgu.spl.net.impl.stomp.BroadcastFrame;
+import bgu.spl.net.srv.metrics.ServerMetrics;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers a publish to a very large channel on several threads instead of the publisher's.
+ * Subscribers are split into lanes by connectionId and every lane is an {@link ActorMailbox}, so the
+ * deliveries to one connection run one at a time and in publish order whatever the chunking was.
+ * A channel that went parallel once stays parallel, so a later small publish can never overtake
+ * an earlier large one that is still being delivered.
+ */
+final class ParallelFanOut {
+
+    // 0 turns parallel fan-out off
+    private static final int THRESHOLD = Integer.getInteger("stomp.fanout.parallelThreshold", 2000);
+    // subscribers one task delivers to before the lane lets the next task run
+    private static final int CHUNK = Math.max(1, Integer.getInteger("stomp.fanout.chunk", 512));
+    private static final int LANES = Math.max(1,
+            Integer.getInteger("stomp.fanout.lanes", Runtime.getRuntime().availableProcessors()));
+
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+    private static final ExecutorService THREADS = Executors.newFixedThreadPool(LANES, r -> {
+        Thread thread = new Thread(r, "fanout-" + THREAD_IDS.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ActorMailbox[] MAILBOXES = new ActorMailbox[LANES];
+
+    static {
+        for (int i = 0; i < LANES; i++) {
+            MAILBOXES[i] = new ActorMailbox();
+        }
+    }
+
+    private ParallelFanOut() {
+    }
+
+    /**
+     * Must be called under the channel history lock.
+     */
+    static boolean shouldSplit(Destination destination, int subscribers) {
+        if (!destination.parallelFanOut && THRESHOLD > 0 && subscribers >= THRESHOLD) {
+            destination.parallelFanOut = true;
+        }
+        return destination.parallelFanOut;
+    }
+
+    /**
+     * Queues the deliveries of one publish on the lanes and returns without waiting for them.
+     * Must be called from a delivery of the channel, see {@link ChannelDeliveries}, so publishes reach the lanes
+     * in message order.
+     */
+    static void publish(Destination destination, Subscriber[] subscribers, BroadcastFrame broadcast, long publishedAt) {
+        Subscriber[][] lanes = destination.subscribersByLane(subscribers, LANES);
+        int chunks = 0;
+        for (Subscriber[] lane : lanes) {
+            chunks += (lane.length + CHUNK - 1) / CHUNK;
+        }
+        if (chunks == 0) {
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(chunks);
+        for (int i = 0; i < lanes.length; i++) {
+            Subscriber[] lane = lanes[i];
+            for (int from = 0; from < lane.length; from += CHUNK) {
+                int start = from;
+                int end = Math.min(lane.length, from + CHUNK);
+                MAILBOXES[i].enqueue(() -> {
+                    for (int j = start; j < end; j++) {
+                        lane[j].handler.sendEncoded(broadcast.forSubscriber(lane[j].header));
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        ServerMetrics.FANOUT_PARALLEL_TIME.record(System.nanoTime() - publishedAt);
+                    }
+                }, THREADS);
+            }
+        }
+        ServerMetrics.FANOUT_PARALLEL.increment();
+    }
+
+    /*package*/ static int lane(int connectionId) {
+        return connectionId % LANES;
+    }
+}
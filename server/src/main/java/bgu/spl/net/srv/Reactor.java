@@ -4,12 +4,8 @@ import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.StompMessagingProtocol;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.channels.ClosedSelectorException;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Supplier;
 
 public class Reactor<T> implements Server<T> {
@@ -17,10 +13,8 @@ public class Reactor<T> implements Server<T> {
     private final int port;
     private final Supplier<StompMessagingProtocol<T>> protocolFactory;
     private final Supplier<MessageEncoderDecoder<T>> readerFactory;
-    private final ActorThreadPool pool;
-    private Selector selector;
-    private Thread selectorThread;
-    private final ConcurrentLinkedQueue<Runnable> selectorTasks;
+    private final MailboxActorPool pool;
+    private SubReactor<T> loop;
     private int idCounter;
     private final ConnectionsImpl<T> connections;
 
@@ -31,50 +25,29 @@ public class Reactor<T> implements Server<T> {
             Supplier<StompMessagingProtocol<T>> protocolFactory,
             Supplier<MessageEncoderDecoder<T>> readerFactory) {
 
-        this.pool = new ActorThreadPool(numThreads);
+        this.pool = new MailboxActorPool(numThreads);
         this.port = port;
         this.protocolFactory = protocolFactory;
         this.readerFactory = readerFactory;
-        this.selectorTasks = new ConcurrentLinkedQueue<>();
         this.idCounter=0;
         this.connections=new ConnectionsImpl<>();
     }
 
     @Override
     public void serve() {
-	selectorThread = Thread.currentThread();
-        try (Selector selector = Selector.open();
-                ServerSocketChannel serverSock = ServerSocketChannel.open()) {
+        try (ServerSocketChannel serverSock = ServerSocketChannel.open()) {
 
-            this.selector = selector; //just to be able to close
+            this.loop = new SubReactor<>(pool); //just to be able to close
 
             serverSock.bind(new InetSocketAddress(port));
             serverSock.configureBlocking(false);
-            serverSock.register(selector, SelectionKey.OP_ACCEPT);
+            loop.registerAcceptor(serverSock, () -> handleAccept(serverSock));
 			System.out.println("Server started");
 
-            while (!Thread.currentThread().isInterrupted()) {
+            // a single selector accepts, reads and writes on this thread
+            loop.run();
+            loop.close();
 
-                selector.select();
-                runSelectionThreadTasks();
-
-                for (SelectionKey key : selector.selectedKeys()) {
-
-                    if (!key.isValid()) {
-                        continue;
-                    } else if (key.isAcceptable()) {
-                        handleAccept(serverSock, selector);
-                    } else {
-                        handleReadWrite(key);
-                    }
-                }
-
-                selector.selectedKeys().clear(); //clear the selected keys set so that we can know about new events
-
-            }
-
-        } catch (ClosedSelectorException ex) {
-            //do nothing - server was requested to be closed
         } catch (IOException ex) {
             //this is an error
             ex.printStackTrace();
@@ -84,59 +57,31 @@ public class Reactor<T> implements Server<T> {
         pool.shutdown();
     }
 
-    /*package*/ void updateInterestedOps(SocketChannel chan, int ops) {
-        final SelectionKey key = chan.keyFor(selector);
-        if (Thread.currentThread() == selectorThread) {
-            key.interestOps(ops);
-        } else {
-            selectorTasks.add(() -> {
-                key.interestOps(ops);
-            });
-            selector.wakeup();
-        }
-    }
-
-
-    private void handleAccept(ServerSocketChannel serverChan, Selector selector) throws IOException {
-        SocketChannel clientChan = serverChan.accept();
-        clientChan.configureBlocking(false);
-        int connectionId = idCounter++;
-        StompMessagingProtocol<T> stompMessagingProtocol = protocolFactory.get();
-        stompMessagingProtocol.start(connectionId, connections);
-        final NonBlockingConnectionHandler<T> handler = new NonBlockingConnectionHandler<T>(
-                readerFactory.get(),
-                stompMessagingProtocol,
-                clientChan,
-                this);
-        connections.addConnection(connectionId, handler);
-        clientChan.register(selector, SelectionKey.OP_READ, handler);
-    }
-
-    private void handleReadWrite(SelectionKey key) {
-        @SuppressWarnings("unchecked")
-        NonBlockingConnectionHandler<T> handler = (NonBlockingConnectionHandler<T>) key.attachment();
-
-        if (key.isReadable()) {
-            Runnable task = handler.continueRead();
-            if (task != null) {
-                pool.submit(handler, task);
+    private void handleAccept(ServerSocketChannel serverChan) {
+        try {
+            SocketChannel clientChan = serverChan.accept();
+            if (clientChan == null) {
+                return;
             }
-        }
-
-	    if (key.isValid() && key.isWritable()) {
-            handler.continueWrite();
-        }
-    }
-
-    private void runSelectionThreadTasks() {
-        while (!selectorTasks.isEmpty()) {
-            selectorTasks.remove().run();
+            clientChan.configureBlocking(false);
+            int connectionId = idCounter++;
+            StompMessagingProtocol<T> stompMessagingProtocol = protocolFactory.get();
+            stompMessagingProtocol.start(connectionId, connections);
+            final NonBlockingConnectionHandler<T> handler = new NonBlockingConnectionHandler<T>(
+                    readerFactory.get(),
+                    stompMessagingProtocol,
+                    clientChan,
+                    loop);
+            connections.addConnection(connectionId, handler);
+            loop.register(clientChan, handler);
+        } catch (IOException ex) {
+            ex.printStackTrace();
         }
     }
 
     @Override
     public void close() throws IOException {
-        selector.close();
+        loop.close();
     }
 
 }
@@ -34,6 +34,33 @@ public interface Server<T> extends Closeable {
 
     }
 
+    /**
+     * This function returns a new instance of a thread per client server that runs every client on a virtual thread,
+     * so idle clients cost a small heap object instead of a platform thread and its stack
+     * @param port The port for the server socket
+     * @param protocolFactory A factory that creats new MessagingProtocols
+     * @param encoderDecoderFactory A factory that creats new MessageEncoderDecoder
+     * @param <T> The Message Object for the protocol
+     * @return A new virtual thread per client server
+     * @throws UnsupportedOperationException if the JVM has no virtual threads, before Java 21
+     */
+    public static <T> Server<T> virtualThreadPerClient(
+            int port,
+            Supplier<StompMessagingProtocol<T>> protocolFactory,
+            Supplier<MessageEncoderDecoder<T>> encoderDecoderFactory) {
+
+        if (!VirtualThreads.available()) {
+            throw new UnsupportedOperationException("vtpc needs Java 21 or later, use tpc, reactor or multireactor");
+        }
+        return new BaseServer<T>(port, protocolFactory, encoderDecoderFactory) {
+            @Override
+            protected void execute(BlockingConnectionHandler<T> handler) {
+                VirtualThreads.start(handler);
+            }
+        };
+
+    }
+
     /**
      * This function returns a new instance of a reactor pattern server
      * @param nthreads Number of threads available for protocol processing
@@ -51,4 +78,25 @@ public interface Server<T> extends Closeable {
         return new Reactor<T>(nthreads, port, protocolFactory, encoderDecoderFactory);
     }
 
+    /**
+     * This function returns a new instance of a multi reactor server: one acceptor and several selector threads
+     * @param nthreads Number of threads available for protocol processing
+     * @param nreactors Number of selector threads the connections are spread over
+     * @param balance How a new connection picks its selector thread
+     * @param port The port for the server socket
+     * @param protocolFactory A factory that creats new MessagingProtocols
+     * @param encoderDecoderFactory A factory that creats new MessageEncoderDecoder
+     * @param <T> The Message Object for the protocol
+     * @return A new multi reactor server
+     */
+    public static <T> Server<T> multiReactor(
+            int nthreads,
+            int nreactors,
+            MultiReactor.Balance balance,
+            int port,
+            Supplier<StompMessagingProtocol<T>> protocolFactory,
+            Supplier<MessageEncoderDecoder<T>> encoderDecoderFactory) {
+        return new MultiReactor<T>(nthreads, nreactors, balance, port, protocolFactory, encoderDecoderFactory);
+    }
+
 }
@@ -0,0 +1,188 @@
+package bgu.spl.net.srv;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * A single selector thread. It serves the reads and writes of the connections registered with it
+ * and runs the tasks other threads queue for it, such as interest-ops updates of its own channels.
+ * Read tasks are handed to the shared actor pool.
+ * Its connections' heart-beat and idle timers live in a timer wheel that the select timeout drives.
+ */
+public class SubReactor<T> implements Runnable {
+
+    private static final long TICK_MS = Long.getLong("stomp.timer.tickMs", 100);
+    private static final int WHEEL_SLOTS = Integer.getInteger("stomp.timer.slots", 1024);
+
+    private final Selector selector;
+    private final MailboxActorPool pool;
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger load = new AtomicInteger();
+    private volatile Thread selectorThread;
+    private Runnable acceptHandler;
+    // read after every select, so handlers and timers of this thread share one clock reading per round
+    private long now = clock();
+    private final TimerWheel timers = new TimerWheel(TICK_MS, WHEEL_SLOTS, now);
+
+    public SubReactor(MailboxActorPool pool) throws IOException {
+        this.selector = Selector.open();
+        this.pool = pool;
+    }
+
+    @Override
+    public void run() {
+        selectorThread = Thread.currentThread();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+
+                long timeout = timers.millisToNextTick(now);
+                if (timeout > 0) {
+                    selector.select(timeout);
+                } else {
+                    selector.select();
+                }
+                now = clock();
+                runSelectionThreadTasks();
+
+                for (SelectionKey key : selector.selectedKeys()) {
+
+                    if (!key.isValid()) {
+                        continue;
+                    } else if (key.isAcceptable()) {
+                        acceptHandler.run();
+                    } else {
+                        handleReadWrite(key);
+                    }
+                }
+
+                selector.selectedKeys().clear(); //clear the selected keys set so that we can know about new events
+
+                // after the reads, so a connection that just sent something is not taken for idle
+                timers.advance(now);
+
+            }
+
+        } catch (ClosedSelectorException ex) {
+            //do nothing - server was requested to be closed
+        } catch (IOException ex) {
+            //this is an error
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Lets this selector also accept connections, used when a single reactor does everything.
+     */
+    /*package*/ void registerAcceptor(SelectableChannel serverChan, Runnable acceptHandler) throws IOException {
+        this.acceptHandler = acceptHandler;
+        serverChan.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /*package*/ void register(SocketChannel chan, NonBlockingConnectionHandler<T> handler) {
+        load.incrementAndGet();
+        runOnSelectorThread(() -> {
+            try {
+                chan.register(selector, SelectionKey.OP_READ, handler);
+                handler.registered();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                handler.close();
+            }
+        });
+    }
+
+    /**
+     * The ops are computed on the selector thread, so updates racing from several threads
+     * still end with the latest state of the connection.
+     */
+    /*package*/ void updateInterestedOps(SocketChannel chan, IntSupplier ops) {
+        final SelectionKey key = chan.keyFor(selector);
+        if (key == null) {
+            return; // closed before it was registered
+        }
+        runOnSelectorThread(() -> {
+            if (key.isValid()) {
+                key.interestOps(ops.getAsInt());
+            }
+        });
+    }
+
+    /*package*/ void connectionClosed(NonBlockingConnectionHandler<T> handler) {
+        load.decrementAndGet();
+        try {
+            pool.submit(handler.getMailbox(), handler::terminate);
+        } catch (RejectedExecutionException ex) {
+            //do nothing - the server is shutting down
+        }
+    }
+
+    /**
+     * @return the number of open connections served by this selector
+     */
+    public int load() {
+        return load.get();
+    }
+
+    public void close() throws IOException {
+        selector.close();
+    }
+
+    /**
+     * @return the time of the current selector round in monotonic milliseconds, only valid on the selector thread
+     */
+    /*package*/ long now() {
+        return now;
+    }
+
+    /*package*/ void schedule(TimerWheel.Timeout timeout, long deadlineMs) {
+        timers.schedule(timeout, deadlineMs);
+    }
+
+    /*package*/ void cancel(TimerWheel.Timeout timeout) {
+        timers.cancel(timeout);
+    }
+
+    /*package*/ void runOnSelectorThread(Runnable task) {
+        if (Thread.currentThread() == selectorThread) {
+            task.run();
+        } else {
+            selectorTasks.add(task);
+            selector.wakeup();
+        }
+    }
+
+    private void handleReadWrite(SelectionKey key) {
+        @SuppressWarnings("unchecked")
+        NonBlockingConnectionHandler<T> handler = (NonBlockingConnectionHandler<T>) key.attachment();
+
+        if (key.isReadable()) {
+            Runnable task = handler.continueRead();
+            if (task != null) {
+                pool.submit(handler.getMailbox(), task);
+            }
+        }
+
+        if (key.isValid() && key.isWritable()) {
+            handler.continueWrite();
+        }
+    }
+
+    private static long clock() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    private void runSelectionThreadTasks() {
+        while (!selectorTasks.isEmpty()) {
+            selectorTasks.remove().run();
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package bgu.spl.net.srv;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One subscription as the broadcast path needs it: where to write and the encoded subscription header.
+ */
+final class Subscriber {
+
+    private static final byte[][] COMMON_HEADERS = new byte[256][];
+
+    static {
+        for (int i = 0; i < COMMON_HEADERS.length; i++) {
+            COMMON_HEADERS[i] = encodeHeader(i);
+        }
+    }
+
+    final int connectionId;
+    final int subscriptionId;
+    final ConnectionHandler<?> handler;
+    // "subscription:<id>\n", shared between subscribers with the same small id; never modified
+    final byte[] header;
+
+    Subscriber(int connectionId, int subscriptionId, ConnectionHandler<?> handler) {
+        this.connectionId = connectionId;
+        this.subscriptionId = subscriptionId;
+        this.handler = handler;
+        this.header = subscriptionId < COMMON_HEADERS.length ? COMMON_HEADERS[subscriptionId] : encodeHeader(subscriptionId);
+    }
+
+    private static byte[] encodeHeader(int subscriptionId) {
+        return ("subscription:" + subscriptionId + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,126 @@
+package bgu.spl.net.srv;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Channel subscriptions indexed in both directions: channel -> (connectionId -> subscriptionId) for
+ * broadcasting, and connectionId -> (subscriptionId -> channel) so that unsubscribing or tearing down
+ * a connection only touches the channels that connection actually joined.
+ * Channels are interned to int ids and the connection side is a primitive {@link IntIntMap}, so it costs
+ * a few ints per subscription instead of boxed keys, strings and map entries. The channel side is kept by
+ * each {@link Destination}, together with the handler to broadcast to.
+ */
+public class SubscriptionRegistry {
+    private final ChannelRegistry channels;
+    // connectionId -> (subscriptionId -> channelId), every inner map guarded by itself
+    private final Map<Integer, IntIntMap> connectionToSubscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * Channel ids and message-ids start over with this registry.
+     */
+    public SubscriptionRegistry() {
+        this.channels = new ChannelRegistry();
+    }
+
+    /**
+     * @param messageIdFile where channel ids and message-id reservations are kept, so they resume in the next run
+     */
+    public SubscriptionRegistry(Path messageIdFile) throws IOException {
+        this.channels = new ChannelRegistry(MessageIdLog.open(messageIdFile));
+    }
+
+    public ChannelRegistry getChannels() {
+        return channels;
+    }
+
+    /**
+     * A second subscription of the connection to the same channel replaces the first one.
+     * @param handler where broadcasts to the subscription are written
+     * @return false if the connection already has a subscription with this id, then nothing changes
+     */
+    public boolean subscribe(int connectionId, String channel, int subscriptionId, ConnectionHandler<?> handler) {
+        Destination destination = channels.intern(channel);
+        IntIntMap own = connectionToSubscriptions.computeIfAbsent(connectionId, k -> new IntIntMap());
+        synchronized (own) {
+            if (own.containsKey(subscriptionId)) {
+                return false;
+            }
+            own.put(subscriptionId, destination.id());
+        }
+        int replaced = destination.add(new Subscriber(connectionId, subscriptionId, handler));
+        if (replaced != IntIntMap.MISSING) {
+            synchronized (own) {
+                own.remove(replaced, destination.id());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the channel the subscription was for, or null if the connection has no such subscription
+     */
+    public String unsubscribe(int connectionId, int subscriptionId) {
+        IntIntMap own = connectionToSubscriptions.get(connectionId);
+        if (own == null)
+            return null;
+        int channelId;
+        synchronized (own) {
+            channelId = own.remove(subscriptionId);
+        }
+        Destination destination = channels.get(channelId);
+        if (destination == null)
+            return null;
+        destination.remove(connectionId, subscriptionId);
+        return destination.name();
+    }
+
+    public void unsubscribeChannel(int connectionId, String channel) {
+        Destination destination = channels.find(channel);
+        if (destination == null)
+            return;
+        int subscriptionId = destination.remove(connectionId);
+        IntIntMap own = connectionToSubscriptions.get(connectionId);
+        if (subscriptionId != IntIntMap.MISSING && own != null) {
+            synchronized (own) {
+                own.remove(subscriptionId, destination.id());
+            }
+        }
+    }
+
+    /**
+     * Removes every subscription of the connection, touching only the channels it joined.
+     */
+    public void removeConnection(int connectionId) {
+        IntIntMap own = connectionToSubscriptions.remove(connectionId);
+        if (own == null)
+            return;
+        synchronized (own) {
+            own.forEach((subscriptionId, channelId) -> channels.get(channelId).remove(connectionId, subscriptionId));
+        }
+    }
+
+    /**
+     * @return the channel of the subscription, or null if the connection has no such subscription
+     */
+    public String channelOf(int connectionId, int subscriptionId) {
+        IntIntMap own = connectionToSubscriptions.get(connectionId);
+        if (own == null)
+            return null;
+        int channelId;
+        synchronized (own) {
+            channelId = own.get(subscriptionId);
+        }
+        Destination destination = channels.get(channelId);
+        return destination != null ? destination.name() : null;
+    }
+
+    public boolean isSubscribed(int connectionId, String channel) {
+        Destination destination = channels.find(channel);
+        if (destination == null)
+            return false;
+        return destination.contains(connectionId);
+    }
+}
@@ -0,0 +1,112 @@
+package bgu.spl.net.srv;
+
+/**
+ * A hashed timer wheel owned by one selector thread. Time is cut into ticks and every tick has a slot holding
+ * a linked list of the timeouts due in it, so scheduling and cancelling are O(1) and a tick only visits
+ * the timeouts that expire in it.
+ *
+ * A deadline further away than one turn of the wheel is parked in the last slot of the turn, so a slot
+ * never holds timeouts of a later turn. Its task runs early then, and like every task here it is
+ * expected to check the real deadline and schedule itself again if it has not passed yet.
+ * Not thread safe, only the owning thread may touch the wheel and its timeouts.
+ */
+final class TimerWheel {
+
+    /**
+     * One timer, kept by its owner and scheduled again and again, so the wheel allocates nothing.
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private Timeout prev;
+        private Timeout next;
+        private int slot = -1;
+
+        Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+
+    private final long tickMs;
+    private final Timeout[] slots;
+    private final int mask;
+    // the last tick whose timeouts were run, in ticks of the monotonic clock
+    private long currentTick;
+    private int size = 0;
+
+    TimerWheel(long tickMs, int slotCount, long nowMs) {
+        this.tickMs = Math.max(1, tickMs);
+        int capacity = Integer.highestOneBit(Math.max(2, slotCount - 1)) << 1;
+        this.slots = new Timeout[capacity];
+        this.mask = capacity - 1;
+        this.currentTick = nowMs / this.tickMs;
+    }
+
+    /**
+     * Schedules the timeout to run at the first tick at or after the deadline, moving it if it was scheduled.
+     */
+    void schedule(Timeout timeout, long deadlineMs) {
+        cancel(timeout);
+        long tick = (deadlineMs + tickMs - 1) / tickMs;
+        tick = Math.max(currentTick + 1, Math.min(tick, currentTick + slots.length - 1));
+        int slot = (int) (tick & mask);
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = slots[slot];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        slots[slot] = timeout;
+        size++;
+    }
+
+    void cancel(Timeout timeout) {
+        if (timeout.slot < 0) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = timeout.next = null;
+        timeout.slot = -1;
+        size--;
+    }
+
+    /**
+     * Runs the tasks of every tick up to now. A task may schedule its own or other timeouts again.
+     */
+    void advance(long nowMs) {
+        long target = nowMs / tickMs;
+        // after a stall longer than a turn every slot is due once, and only once
+        long first = Math.max(currentTick + 1, target - slots.length + 1);
+        for (long tick = first; tick <= target; tick++) {
+            currentTick = tick;
+            int slot = (int) (tick & mask);
+            // taken one at a time, as a task may cancel others of the same slot; nothing is scheduled back into it
+            Timeout due;
+            while ((due = slots[slot]) != null) {
+                cancel(due);
+                due.task.run();
+            }
+        }
+        currentTick = Math.max(currentTick, target);
+    }
+
+    /**
+     * @return how long the owner may block before the next tick is due, or 0 if nothing is scheduled
+     */
+    long millisToNextTick(long nowMs) {
+        if (size == 0) {
+            return 0;
+        }
+        return Math.max(1, (currentTick + 1) * tickMs - nowMs);
+    }
+}
@@ -0,0 +1,69 @@
+package bgu.spl.net.srv;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Starts virtual threads on a JVM that has them (Java 21 and later) while the server still builds and runs on
+ * Java 17, where Thread.startVirtualThread does not exist and is looked up rather than linked.
+ */
+public final class VirtualThreads {
+
+    // Thread.startVirtualThread(Runnable), or null before Java 21
+    private static final MethodHandle START = find();
+
+    private VirtualThreads() {
+    }
+
+    private static MethodHandle find() {
+        if (Runtime.version().feature() < 21) {
+            // 19 and 20 have the method but throw unless preview features are enabled
+            return null;
+        }
+        try {
+            return MethodHandles.publicLookup().findStatic(Thread.class, "startVirtualThread",
+                    MethodType.methodType(Thread.class, Runnable.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether this JVM can start virtual threads
+     */
+    public static boolean available() {
+        return START != null;
+    }
+
+    /**
+     * Starts the task on a new virtual thread.
+     * @throws UnsupportedOperationException if this JVM has no virtual threads
+     */
+    public static Thread start(Runnable task) {
+        if (START == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later, this is Java "
+                    + Runtime.version().feature());
+        }
+        try {
+            return (Thread) START.invokeExact(task);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts the task on a new virtual thread, or on a new daemon platform thread if this JVM has none.
+     */
+    public static Thread startOrPlatform(Runnable task) {
+        if (START != null) {
+            return start(task);
+        }
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,75 @@
+package bgu.spl.net.srv.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds the named counters, gauges and histograms of the process and renders them as text.
+ * Metrics are created once, up front; the hot paths keep a reference and only record into it.
+ */
+public class MetricsRegistry {
+
+    private final Map<String, LongAdder> counters = new LinkedHashMap<>();
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    // histograms of nanosecond durations are rendered in microseconds
+    private final Map<String, Boolean> durations = new LinkedHashMap<>();
+
+    private static class Instance {
+        static MetricsRegistry instance = new MetricsRegistry();
+    }
+
+    public static MetricsRegistry getInstance() {
+        return Instance.instance;
+    }
+
+    public synchronized LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public synchronized void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public synchronized Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * A histogram of durations in nanoseconds.
+     */
+    public synchronized Histogram timer(String name) {
+        durations.put(name, true);
+        return histogram(name);
+    }
+
+    /**
+     * @return every metric on its own line, "name value" for counters and gauges and
+     * "name count=.. mean=.. p50=.. p99=.. p999=.. max=.." for histograms
+     */
+    public synchronized String render() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            out.append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            out.append(gauge.getKey()).append(' ').append(gauge.getValue().getAsLong()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            boolean micros = durations.containsKey(entry.getKey());
+            long scale = micros ? 1000 : 1;
+            out.append(entry.getKey()).append(micros ? "_us" : "")
+                    .append(" count=").append(histogram.count())
+                    .append(" mean=").append(String.format("%.1f", histogram.mean() / scale))
+                    .append(" p50=").append(histogram.percentile(50) / scale)
+                    .append(" p99=").append(histogram.percentile(99) / scale)
+                    .append(" p999=").append(histogram.percentile(99.9) / scale)
+                    .append(" max=").append(histogram.max() / scale)
+                    .append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package bgu.spl.net.srv.metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Publishes the metrics of {@link MetricsRegistry}, both are off by default:
+ * stomp.metrics.port serves them as plain text on a loopback admin port (curl http://localhost:PORT/),
+ * stomp.metrics.dumpSeconds prints them to standard output every that many seconds.
+ */
+public class MetricsReporter {
+
+    public static void startFromProperties() {
+        int port = Integer.getInteger("stomp.metrics.port", 0);
+        int dumpSeconds = Integer.getInteger("stomp.metrics.dumpSeconds", 0);
+        if (port > 0) {
+            startAdminPort(port);
+        }
+        if (dumpSeconds > 0) {
+            startPeriodicDump(dumpSeconds);
+        }
+    }
+
+    public static void startAdminPort(int port) {
+        final ServerSocket serverSock;
+        try {
+            serverSock = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        } catch (IOException ex) {
+            System.err.println("Metrics port " + port + " is not available: " + ex.getMessage());
+            return;
+        }
+        Thread admin = new Thread(() -> {
+            while (!serverSock.isClosed()) {
+                try (Socket client = serverSock.accept()) {
+                    client.setSoTimeout(1000);
+                    skipRequest(client.getInputStream());
+                    byte[] body = MetricsRegistry.getInstance().render().getBytes(StandardCharsets.UTF_8);
+                    OutputStream out = client.getOutputStream();
+                    out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\nContent-Length: " + body.length
+                            + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(body);
+                    out.flush();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }, "metrics-admin");
+        admin.setDaemon(true);
+        admin.start();
+    }
+
+    public static void startPeriodicDump(int seconds) {
+        Thread dump = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(seconds * 1000L);
+                    System.out.print("--- metrics ---\n" + MetricsRegistry.getInstance().render());
+                }
+            } catch (InterruptedException ex) {
+                //do nothing - the process is shutting down
+            }
+        }, "metrics-dump");
+        dump.setDaemon(true);
+        dump.start();
+    }
+
+    /**
+     * Reads up to the blank line that ends an HTTP request, the request itself does not matter.
+     */
+    private static void skipRequest(InputStream in) throws IOException {
+        int matched = 0;
+        int b;
+        try {
+            while (matched < 2 && (b = in.read()) != -1) {
+                if (b == '\n') {
+                    matched++;
+                } else if (b != '\r') {
+                    matched = 0;
+                }
+            }
+        } catch (SocketTimeoutException ex) {
+            //do nothing - not an HTTP client, answer anyway
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package bgu.spl.net.srv.metrics;
+
+import bgu.spl.net.srv.NonBlockingConnectionHandler;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the server hot paths, created once so that recording is a field access and an add.
+ */
+public final class ServerMetrics {
+
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getInstance();
+
+    private static final String[] COMMANDS = {
+            "CONNECT", "STOMP", "SEND", "SUBSCRIBE", "UNSUBSCRIBE", "DISCONNECT",
+            "BEGIN", "COMMIT", "ABORT", "ACK", "NACK"
+    };
+    private static final Map<String, LongAdder> FRAMES_BY_COMMAND = new HashMap<>();
+    private static final LongAdder FRAMES_OTHER;
+
+    /** subscribers one publish went out to */
+    public static final Histogram FANOUT_SIZE = REGISTRY.histogram("fanout.subscribers");
+    /** time ConnectionsImpl.send took to hand one publish to all the subscribers, or to the fan-out lanes */
+    public static final Histogram FANOUT_TIME = REGISTRY.timer("fanout.time");
+    /** publishes that were handed to the parallel fan-out lanes */
+    public static final LongAdder FANOUT_PARALLEL = REGISTRY.counter("fanout.parallel");
+    /** time from a parallel publish until its last subscriber was handed the frame */
+    public static final Histogram FANOUT_PARALLEL_TIME = REGISTRY.timer("fanout.parallel.time");
+    /** tasks submitted to an actor pool and not started yet */
+    public static final LongAdder ACTOR_QUEUED_TASKS = new LongAdder();
+    /** time an actor waited in the executor queue for a worker */
+    public static final Histogram ACTOR_WAIT_TIME = REGISTRY.timer("actor.wait");
+    /** connections closed because the client sent nothing within its login, idle or heart-beat timeout */
+    public static final LongAdder CONNECTIONS_REAPED = REGISTRY.counter("connections.reaped");
+    /** heart-beat EOLs queued to clients that had nothing else to receive */
+    public static final LongAdder HEARTBEATS_SENT = REGISTRY.counter("heartbeats.sent");
+    /** round trip of one statement to the SQL server */
+    public static final Histogram SQL_EXECUTE_TIME = REGISTRY.timer("sql.execute");
+
+    static {
+        for (String command : COMMANDS) {
+            FRAMES_BY_COMMAND.put(command, REGISTRY.counter("frames.decoded." + command));
+        }
+        FRAMES_OTHER = REGISTRY.counter("frames.decoded.other");
+        REGISTRY.gauge("actor.queuedTasks", ACTOR_QUEUED_TASKS::sum);
+        REGISTRY.gauge("writeQueue.bytes", NonBlockingConnectionHandler::getTotalQueuedBytes);
+        REGISTRY.gauge("writeQueue.droppedFrames", NonBlockingConnectionHandler::getTotalDroppedFrames);
+    }
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * @param command the command of a decoded frame, matched by hash lookup so nothing is allocated
+     */
+    public static void frameDecoded(String command) {
+        LongAdder counter = FRAMES_BY_COMMAND.get(command);
+        (counter != null ? counter : FRAMES_OTHER).increment();
+    }
+}
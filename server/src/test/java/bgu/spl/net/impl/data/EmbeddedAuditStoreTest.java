@@ -0,0 +1,149 @@
+package bgu.spl.net.impl.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EmbeddedAuditStoreTest {
+
+	private static final List<String> CHANNELS = List.of("/g0", "/g1", "/g2");
+
+	@TempDir
+	Path dir;
+
+	private EmbeddedAuditStore store;
+	// {username, filename, game channel} of every upload, oldest first
+	private final List<String[]> uploaded = new ArrayList<>();
+
+	@BeforeEach
+	void open() throws IOException {
+		store = new EmbeddedAuditStore(dir.resolve("audit.log"));
+	}
+
+	@AfterEach
+	void close() {
+		store.close();
+	}
+
+	private void upload(Random random, int count) {
+		for (int i = 0; i < count; i++) {
+			String user = "u" + random.nextInt(15);
+			String file = "f" + uploaded.size();
+			String channel = CHANNELS.get(random.nextInt(CHANNELS.size()));
+			store.fileUploaded(user, file, channel);
+			uploaded.add(new String[] { user, file, channel });
+		}
+	}
+
+	/**
+	 * @return the filenames the query should return: by username, each user's newest first
+	 */
+	private List<String> expected(String username, String channel) {
+		TreeMap<String, List<String>> byUser = new TreeMap<>();
+		for (String[] upload : uploaded) {
+			if ((username == null || username.equals(upload[0])) && (channel == null || channel.equals(upload[2]))) {
+				byUser.computeIfAbsent(upload[0], k -> new ArrayList<>()).add(0, upload[1]);
+			}
+		}
+		List<String> files = new ArrayList<>();
+		byUser.values().forEach(files::addAll);
+		return files;
+	}
+
+	private List<String> readAll(String username, String channel, int limit) {
+		List<String> files = new ArrayList<>();
+		AuditStore.PageKey after = null;
+		do {
+			AuditStore.KeyedPage page = store.fileUploads(username, channel, after, limit);
+			for (String[] row : page.rows) {
+				files.add(row[1]);
+			}
+			after = page.next;
+		} while (after != null);
+		return files;
+	}
+
+	@Test
+	void pagesThroughEveryFilter() {
+		upload(new Random(7), 600);
+
+		for (int limit : new int[] { 1, 7, 50, 1000 }) {
+			assertEquals(expected(null, null), readAll(null, null, limit), "limit " + limit);
+			assertEquals(expected("u3", null), readAll("u3", null, limit), "limit " + limit);
+			for (String channel : CHANNELS) {
+				assertEquals(expected(null, channel), readAll(null, channel, limit), channel + " limit " + limit);
+				assertEquals(expected("u3", channel), readAll("u3", channel, limit), channel + " limit " + limit);
+			}
+		}
+		assertEquals(List.of(), readAll("nobody", null, 10));
+		assertEquals(List.of(), readAll(null, "/none", 10));
+	}
+
+	@Test
+	void readersOfOneChannelDoNotShareAPosition() {
+		upload(new Random(11), 300);
+		List<String> first = new ArrayList<>();
+		List<String> second = new ArrayList<>();
+		AuditStore.PageKey firstAfter = null;
+		AuditStore.PageKey secondAfter = null;
+
+		// the two readers take turns, on pages of different sizes
+		do {
+			AuditStore.KeyedPage page = store.fileUploads(null, "/g1", firstAfter, 5);
+			page.rows.forEach(row -> first.add(row[1]));
+			firstAfter = page.next;
+			if (secondAfter != null || second.isEmpty()) {
+				page = store.fileUploads(null, "/g1", secondAfter, 3);
+				page.rows.forEach(row -> second.add(row[1]));
+				secondAfter = page.next;
+			}
+		} while (firstAfter != null);
+		while (secondAfter != null) {
+			AuditStore.KeyedPage page = store.fileUploads(null, "/g1", secondAfter, 3);
+			page.rows.forEach(row -> second.add(row[1]));
+			secondAfter = page.next;
+		}
+
+		assertEquals(expected(null, "/g1"), first);
+		assertEquals(expected(null, "/g1"), second);
+	}
+
+	@Test
+	void uploadsBetweenPagesMoveNothingAlreadyPaged() {
+		Random random = new Random(3);
+		upload(random, 200);
+		List<String> before = expected(null, "/g0");
+
+		AuditStore.KeyedPage page = store.fileUploads(null, "/g0", null, 10);
+		List<String> files = new ArrayList<>();
+		page.rows.forEach(row -> files.add(row[1]));
+		upload(random, 200);
+		for (AuditStore.PageKey after = page.next; after != null; after = page.next) {
+			page = store.fileUploads(null, "/g0", after, 10);
+			page.rows.forEach(row -> files.add(row[1]));
+		}
+
+		// every upload that was there from the start is read once, in its place
+		List<String> old = new ArrayList<>(files);
+		old.retainAll(before);
+		assertEquals(before, old);
+	}
+
+	@Test
+	void replaysTheFileOnOpen() throws IOException {
+		upload(new Random(5), 100);
+		store.close();
+
+		store = new EmbeddedAuditStore(dir.resolve("audit.log"));
+		assertEquals(expected(null, null), readAll(null, null, 9));
+	}
+}
@@ -0,0 +1,130 @@
+package bgu.spl.net.impl.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class SessionManagerTest {
+
+	private final SessionManager sessions = new SessionManager();
+
+	/**
+	 * Runs the task on the threads at once, each given its index, and waits for all of them.
+	 */
+	private static void race(int threads, IntTask task) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> running = new ArrayList<>();
+		List<Throwable> failures = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			int index = i;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+					task.run(index);
+				} catch (Throwable e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			});
+			thread.start();
+			running.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : running) {
+			thread.join();
+		}
+		if (!failures.isEmpty()) {
+			throw new AssertionError(failures.get(0));
+		}
+	}
+
+	private interface IntTask {
+		void run(int index) throws Exception;
+	}
+
+	@Test
+	void loginStatuses() {
+		assertEquals(LoginStatus.ADDED_NEW_USER, sessions.login(1, "alice", "pw"));
+		assertEquals(LoginStatus.CLIENT_ALREADY_CONNECTED, sessions.login(1, "bob", "pw"));
+		assertEquals(LoginStatus.ALREADY_LOGGED_IN, sessions.login(2, "alice", "pw"));
+		assertEquals(LoginStatus.WRONG_PASSWORD, sessions.login(2, "alice", "nope"));
+
+		assertEquals("alice", sessions.logout(1).name);
+		assertNull(sessions.logout(1));
+		assertEquals(LoginStatus.LOGGED_IN_SUCCESSFULLY, sessions.login(2, "alice", "pw"));
+		assertEquals(2, sessions.getUser("alice").getConnectionId());
+	}
+
+	@Test
+	void concurrentFirstLoginsCreateTheUserOnce() throws InterruptedException {
+		for (int round = 0; round < 50; round++) {
+			SessionManager sessions = new SessionManager();
+			Map<LoginStatus, AtomicInteger> statuses = new ConcurrentHashMap<>();
+			race(8, i -> statuses.computeIfAbsent(sessions.login(i, "alice", "pw"), s -> new AtomicInteger())
+					.incrementAndGet());
+
+			assertEquals(1, statuses.get(LoginStatus.ADDED_NEW_USER).get());
+			assertEquals(7, statuses.get(LoginStatus.ALREADY_LOGGED_IN).get());
+			assertEquals(1, sessions.userCount());
+			assertEquals(1, sessions.loggedInCount());
+			User alice = sessions.getUser("alice");
+			assertSame(alice, sessions.getSession(alice.getConnectionId()));
+		}
+	}
+
+	@Test
+	void neverTwoSessionsOfOneUser() throws InterruptedException {
+		sessions.login(100, "alice", "pw");
+		sessions.logout(100);
+		AtomicInteger holders = new AtomicInteger();
+		AtomicInteger wins = new AtomicInteger();
+
+		race(8, i -> {
+			for (int attempt = 0; attempt < 20_000; attempt++) {
+				if (sessions.login(i, "alice", "pw") == LoginStatus.LOGGED_IN_SUCCESSFULLY) {
+					wins.incrementAndGet();
+					assertEquals(1, holders.incrementAndGet());
+					assertEquals(i, sessions.getUser("alice").getConnectionId());
+					holders.decrementAndGet();
+					sessions.logout(i);
+				}
+			}
+		});
+
+		assertFalse(wins.get() == 0);
+		assertFalse(sessions.getUser("alice").isLoggedIn());
+		assertEquals(0, sessions.loggedInCount());
+	}
+
+	@Test
+	void aStaleLogoutLeavesTheNewSessionAlone() {
+		sessions.login(1, "alice", "pw");
+		User alice = sessions.getUser("alice");
+		sessions.logout(1);
+		sessions.login(2, "alice", "pw");
+
+		// what a late teardown of the first connection does to the user
+		assertFalse(alice.logout(1));
+		assertEquals(2, alice.getConnectionId());
+		assertNull(sessions.logout(1));
+		assertSame(alice, sessions.getSession(2));
+	}
+
+	@Test
+	void differentUsersLogInTogether() throws InterruptedException {
+		race(16, i -> assertEquals(LoginStatus.ADDED_NEW_USER, sessions.login(i, "user" + i, "pw")));
+
+		assertEquals(16, sessions.userCount());
+		assertEquals(16, sessions.loggedInCount());
+	}
+}
@@ -0,0 +1,157 @@
+package bgu.spl.net.impl.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs the store against the Python SQL server of the assignment, started in a temporary directory.
+ * Skipped where python3 or the server script is missing.
+ */
+class SqlAuditStoreTest {
+
+	static {
+		// two users a page, so the totals take several rounds; read when SqlAuditStore is loaded
+		System.setProperty("stomp.report.totalsPage", "2");
+	}
+
+	private static final Path SCRIPT = Paths.get("..", "data", "sql_server.py").toAbsolutePath();
+
+	// names that broke paging when rows were read back from Python's str() of a tuple
+	private static final List<String> USERS = List.of(
+			"o'brien", "smith, jr", "('x', 'y')", "back\\slash", "quote\"d", "a\u001eb\u001fc", "plain");
+
+	@TempDir
+	Path dir;
+
+	private Process server;
+	private int port;
+
+	@BeforeEach
+	void startServer() throws Exception {
+		assumeTrue(Files.exists(SCRIPT), "no " + SCRIPT);
+		try (ServerSocket probe = new ServerSocket(0)) {
+			port = probe.getLocalPort();
+		}
+		try {
+			server = new ProcessBuilder("python3", SCRIPT.toString(), String.valueOf(port))
+					.directory(dir.toFile())
+					.redirectErrorStream(true)
+					.redirectOutput(dir.resolve("sql_server.log").toFile())
+					.start();
+		} catch (IOException e) {
+			assumeTrue(false, "no python3: " + e);
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (true) {
+			try (Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress("127.0.0.1", port), 200);
+				return;
+			} catch (IOException e) {
+				if (System.nanoTime() > deadline || !server.isAlive()) {
+					throw new IllegalStateException("the SQL server did not start, see " + dir.resolve("sql_server.log"), e);
+				}
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	@AfterEach
+	void stopServer() throws InterruptedException {
+		if (server != null) {
+			server.destroy();
+			server.waitFor(5, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	@Timeout(value = 60, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+	void loadsTotalsPageByPageWhateverTheNamesHold() {
+		SqlAuditStore store = new SqlAuditStore("127.0.0.1", port);
+		for (int i = 0; i < USERS.size(); i++) {
+			String user = USERS.get(i);
+			store.userRegistered(user, "pw");
+			for (int session = 0; session <= i; session++) {
+				store.loggedIn(user);
+				store.loggedOut(user);
+			}
+			store.fileUploaded(user, "a.json", "/germany_spain");
+			store.fileUploaded(user, "b.json", "/g, 'quoted'");
+		}
+		store.flush();
+		store.close();
+
+		// a restarted server loads the totals from what the first one wrote
+		SqlAuditStore restarted = new SqlAuditStore("127.0.0.1", port);
+		ReportEngine report = new ReportEngine();
+		restarted.loadTotals(report);
+		restarted.close();
+
+		assertEquals(USERS.size(), report.userCount());
+		assertEquals(USERS.size() * (USERS.size() + 1) / 2, report.sessionCount());
+		assertEquals(2L * USERS.size(), report.uploadCount());
+		for (int i = 0; i < USERS.size(); i++) {
+			ReportEngine.UserTotals totals = report.user(USERS.get(i));
+			assertNotNull(totals, USERS.get(i));
+			assertEquals(i + 1, totals.sessions(), USERS.get(i));
+			assertEquals(Map.of("/germany_spain", 1L, "/g, 'quoted'", 1L), totals.uploadsByGame(), USERS.get(i));
+		}
+	}
+
+	@Test
+	@Timeout(value = 60, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+	void pagesUploadsByKeyWhateverTheNamesHold() {
+		SqlAuditStore store = new SqlAuditStore("127.0.0.1", port);
+		for (String user : USERS) {
+			store.userRegistered(user, "pw");
+			store.fileUploaded(user, "a.json", "/germany_spain");
+			store.fileUploaded(user, "b.json", "/g, 'quoted'");
+			store.fileUploaded(user, "c.json", "/germany_spain");
+		}
+		store.flush();
+
+		List<String> all = new ArrayList<>();
+		List<String> game = new ArrayList<>();
+		for (String user : new TreeSet<>(USERS)) {
+			all.addAll(List.of(user + " c.json", user + " b.json", user + " a.json"));
+			game.addAll(List.of(user + " c.json", user + " a.json"));
+		}
+		assertEquals(all, readAll(store, null, null));
+		assertEquals(game, readAll(store, null, "/germany_spain"));
+		assertEquals(List.of("plain c.json", "plain b.json", "plain a.json"), readAll(store, "plain", null));
+		assertEquals(List.of("plain c.json", "plain a.json"), readAll(store, "plain", "/germany_spain"));
+		store.close();
+	}
+
+	private static List<String> readAll(SqlAuditStore store, String username, String gameChannel) {
+		List<String> uploads = new ArrayList<>();
+		AuditStore.PageKey after = null;
+		do {
+			AuditStore.KeyedPage page = store.fileUploads(username, gameChannel, after, 2);
+			for (String[] row : page.rows) {
+				assertEquals(4, row.length);
+				uploads.add(row[0] + " " + row[1]);
+			}
+			after = page.next;
+		} while (after != null);
+		return uploads;
+	}
+}
@@ -0,0 +1,56 @@
+package bgu.spl.net.impl.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class SqlStatementTest {
+
+	private static final String ROW = "\u001e";
+	private static final String FIELD = "\u001f";
+
+	@Test
+	void parsesAnEmptyResult() {
+		assertEquals(List.of(), SqlStatement.parseRows("ROWS", 2));
+	}
+
+	@Test
+	void keepsQuotesCommasAndParenthesesInFields() {
+		List<String[]> rows = SqlStatement.parseRows(
+				"ROWS" + ROW + "1" + FIELD + "o'brien" + ROW + "2" + FIELD + "smith, jr" + ROW + "3" + FIELD + "('x', 'y')", 2);
+
+		assertEquals(3, rows.size());
+		assertArrayEquals(new String[] { "1", "o'brien" }, rows.get(0));
+		assertArrayEquals(new String[] { "2", "smith, jr" }, rows.get(1));
+		assertArrayEquals(new String[] { "3", "('x', 'y')" }, rows.get(2));
+	}
+
+	@Test
+	void unescapesSeparatorsBackslashesAndNulls() {
+		List<String[]> rows = SqlStatement.parseRows(
+				"ROWS" + ROW + "a\\Rb\\Fc" + FIELD + "back\\\\slash\\0" + FIELD + "\\N" + FIELD, 4);
+
+		assertArrayEquals(new String[] { "a\u001eb\u001fc", "back\\slash\u0000", null, "" }, rows.get(0));
+	}
+
+	@Test
+	void takesOnlyAWholeFieldOfBackslashNForANull() {
+		List<String[]> rows = SqlStatement.parseRows(
+				"ROWS" + ROW + "a\\Nb" + FIELD + "\\\\N" + FIELD + "\\N" + ROW + "\\N" + FIELD + "\\Nx" + FIELD + "x\\N", 3);
+
+		assertArrayEquals(new String[] { "aNb", "\\N", null }, rows.get(0));
+		assertArrayEquals(new String[] { null, "Nx", "xN" }, rows.get(1));
+	}
+
+	@Test
+	void rejectsErrorsAndRowsOfTheWrongShape() {
+		assertThrows(IllegalArgumentException.class, () -> SqlStatement.parseRows("ERROR: no such table", 2));
+		assertThrows(IllegalArgumentException.class, () -> SqlStatement.parseRows(null, 2));
+		assertThrows(IllegalArgumentException.class, () -> SqlStatement.parseRows("ROWS" + ROW + "1", 2));
+		assertThrows(IllegalArgumentException.class,
+				() -> SqlStatement.parseRows("ROWS" + ROW + "1" + FIELD + "2" + FIELD + "3", 2));
+	}
+}
@@ -0,0 +1,117 @@
+package bgu.spl.net.impl.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+
+	private static final int SEGMENT_BYTES = 4096;
+	// length, checksum and type
+	private static final int HEADER_BYTES = 9;
+
+	@TempDir
+	Path dir;
+
+	private List<String> replay() throws IOException {
+		List<String> records = new ArrayList<>();
+		WriteAheadLog wal = WriteAheadLog.open(dir, SEGMENT_BYTES, 0,
+				(type, payload) -> records.add(type + ":" + StandardCharsets.UTF_8.decode(payload)));
+		wal.close();
+		return records;
+	}
+
+	/**
+	 * Appends the records to a new log, one per type in order, and forces them.
+	 * @return where the last record starts in the first segment
+	 */
+	private int write(String... payloads) throws IOException {
+		WriteAheadLog wal = WriteAheadLog.open(dir, SEGMENT_BYTES, 0, (type, payload) -> { });
+		int start = 0;
+		int lastStart = 0;
+		for (int i = 0; i < payloads.length; i++) {
+			byte[] payload = payloads[i].getBytes(StandardCharsets.UTF_8);
+			wal.append((byte) (i + 1), payload);
+			lastStart = start;
+			start += HEADER_BYTES + payload.length;
+		}
+		wal.close();
+		return lastStart;
+	}
+
+	private FileChannel firstSegment() throws IOException {
+		return FileChannel.open(dir.resolve("wal-0000000000.log"), StandardOpenOption.WRITE);
+	}
+
+	@Test
+	void replaysEveryRecordInOrder() throws IOException {
+		write("alice", "bob", "carol");
+		assertEquals(List.of("1:alice", "2:bob", "3:carol"), replay());
+	}
+
+	@Test
+	void skipsAFinalRecordCutShortByTheEndOfTheFile() throws IOException {
+		int lastStart = write("alice", "bob", "carol");
+		try (FileChannel file = firstSegment()) {
+			file.truncate(lastStart + HEADER_BYTES + 2);
+		}
+
+		assertEquals(List.of("1:alice", "2:bob"), replay());
+	}
+
+	@Test
+	void skipsAFinalRecordWhosePayloadNeverReachedTheDisk() throws IOException {
+		int lastStart = write("alice", "bob", "carol");
+		try (FileChannel file = firstSegment()) {
+			file.write(ByteBuffer.allocate(3), lastStart + HEADER_BYTES + 1);
+		}
+
+		assertEquals(List.of("1:alice", "2:bob"), replay());
+	}
+
+	@Test
+	void skipsAFinalRecordWhoseLengthNeverReachedTheDisk() throws IOException {
+		int lastStart = write("alice", "bob", "carol");
+		try (FileChannel file = firstSegment()) {
+			file.write(ByteBuffer.allocate(4), lastStart);
+		}
+
+		assertEquals(List.of("1:alice", "2:bob"), replay());
+	}
+
+	@Test
+	void appendsAfterATornTailGoToANewSegment() throws IOException {
+		int lastStart = write("alice", "bob", "carol");
+		try (FileChannel file = firstSegment()) {
+			file.truncate(lastStart + 5);
+		}
+
+		WriteAheadLog wal = WriteAheadLog.open(dir, SEGMENT_BYTES, 0, (type, payload) -> { });
+		wal.append((byte) 4, "dave".getBytes(StandardCharsets.UTF_8));
+		wal.close();
+		assertEquals(List.of("1:alice", "2:bob", "4:dave"), replay());
+	}
+
+	@Test
+	void replaysOnlyFromTheFirstSegmentAskedFor() throws IOException {
+		WriteAheadLog wal = WriteAheadLog.open(dir, SEGMENT_BYTES, 0, (type, payload) -> { });
+		wal.append((byte) 1, "old".getBytes(StandardCharsets.UTF_8));
+		long next = wal.roll();
+		wal.append((byte) 2, "new".getBytes(StandardCharsets.UTF_8));
+		wal.close();
+
+		List<String> records = new ArrayList<>();
+		WriteAheadLog.open(dir, SEGMENT_BYTES, next,
+				(type, payload) -> records.add(type + ":" + StandardCharsets.UTF_8.decode(payload))).close();
+		assertEquals(List.of("2:new"), records);
+	}
+}
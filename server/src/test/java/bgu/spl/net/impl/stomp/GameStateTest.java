@@ -0,0 +1,100 @@
+package bgu.spl.net.impl.stomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class GameStateTest {
+
+    private static final String KICKOFF = "user:alice\n"
+            + "team a:Germany\n"
+            + "team b:Spain\n"
+            + "event name:kickoff\n"
+            + "time:0\n"
+            + "general game updates:\n"
+            + "active:true\n"
+            + "before halftime:true\n"
+            + "team a updates:\n"
+            + "goals:0\n"
+            + "team b updates:\n"
+            + "goals:0\n"
+            + "description:\n"
+            + "The game has started.\n";
+
+    private static final String GOAL = "user:bob\n"
+            + "team a:Germany\n"
+            + "team b:Spain\n"
+            + "event name:goal!!!!\n"
+            + "time:1380\n"
+            + "general game updates:\n"
+            + "team a updates:\n"
+            + "goals:1\n"
+            + "possession:51%\n"
+            + "team b updates:\n"
+            + "description:\n"
+            + "time:9999\n"
+            + "team a updates:\n"
+            + "goals:7\n";
+
+    @Test
+    void foldsOnlyTheKeysAReportMentions() {
+        GameState state = new GameState();
+        state.apply(KICKOFF);
+        state.apply(GOAL);
+
+        assertEquals(2, state.getReports());
+        assertEquals("team a:Germany\n"
+                + "team b:Spain\n"
+                + "event name:goal!!!!\n"
+                + "time:1380\n"
+                + "general game updates:\n"
+                + "active:true\n"
+                + "before halftime:true\n"
+                + "team a updates:\n"
+                + "goals:1\n"
+                + "possession:51%\n"
+                + "team b updates:\n"
+                + "goals:0\n"
+                + "description:\n"
+                + "Snapshot of 2 reports\n", state.snapshotBody());
+    }
+
+    @Test
+    void appliesAReportTwiceLikeOnce() {
+        GameState once = new GameState();
+        once.apply(KICKOFF);
+        once.apply(GOAL);
+        GameState twice = new GameState();
+        twice.apply(KICKOFF);
+        twice.apply(GOAL);
+        twice.apply(GOAL);
+
+        assertEquals(once.snapshotBody().replace("Snapshot of 2", "Snapshot of 3"), twice.snapshotBody());
+    }
+
+    @Test
+    void aSnapshotAppliedToANewStateGivesTheSameState() {
+        GameState state = new GameState();
+        state.apply(KICKOFF);
+        state.apply(GOAL);
+
+        GameState joined = new GameState();
+        joined.apply(state.snapshotBody());
+
+        assertEquals(state.snapshotBody().replace("Snapshot of 2", "Snapshot of 1"), joined.snapshotBody());
+    }
+
+    @Test
+    void startsEmptyAndSkipsLinesThatAreNotKeyValues() {
+        GameState state = new GameState();
+        assertEquals("team a:\nteam b:\nevent name:\ntime:0\n"
+                + "general game updates:\nteam a updates:\nteam b updates:\n"
+                + "description:\nSnapshot of 0 reports\n", state.snapshotBody());
+
+        state.apply("team a:Brazil\nno colon here\n:no key\ngeneral game updates:\nweather: rain \n");
+
+        assertEquals("team a:Brazil\nteam b:\nevent name:\ntime:0\n"
+                + "general game updates:\nweather:rain\nteam a updates:\nteam b updates:\n"
+                + "description:\nSnapshot of 1 reports\n", state.snapshotBody());
+    }
+}
@@ -0,0 +1,149 @@
+package bgu.spl.net.impl.stomp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class StompMessageEncoderDecoderTest {
+
+    private static final String SEND = "SEND\ndestination:/germany_spain\nreceipt:7\n\nteam a: germany\nevent: goal\n\u0000";
+    private static final String SUBSCRIBE = "SUBSCRIBE\ndestination:/germany_spain\nid:3\n\n\u0000";
+
+    /**
+     * Feeds the chunks to the decoder the way the reactor does, one read after the other.
+     */
+    private static List<StompFrame> decode(StompMessageEncoderDecoder decoder, byte[]... chunks) {
+        List<StompFrame> frames = new ArrayList<>();
+        for (byte[] chunk : chunks) {
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            while (buffer.hasRemaining()) {
+                StompFrame frame = decoder.decodeNextBytes(buffer);
+                if (frame != null) {
+                    frames.add(frame);
+                }
+            }
+        }
+        return frames;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertSend(StompFrame frame) {
+        assertEquals("SEND", frame.getCommand());
+        assertEquals("/germany_spain", frame.GetHeader("destination"));
+        assertEquals("7", frame.GetHeader("receipt"));
+        assertEquals("team a: germany\nevent: goal\n", frame.getBody());
+    }
+
+    @Test
+    void decodesAFrameSplitAtEveryByte() {
+        byte[] frame = bytes(SEND);
+        for (int split = 1; split < frame.length; split++) {
+            StompMessageEncoderDecoder decoder = new StompMessageEncoderDecoder();
+            byte[] first = new byte[split];
+            byte[] second = new byte[frame.length - split];
+            System.arraycopy(frame, 0, first, 0, split);
+            System.arraycopy(frame, split, second, 0, second.length);
+
+            assertEquals(0, decode(decoder, first).size(), "split at " + split);
+            List<StompFrame> frames = decode(decoder, second);
+            assertEquals(1, frames.size(), "split at " + split);
+            assertSend(frames.get(0));
+        }
+    }
+
+    @Test
+    void stopsAtTheTerminatorOfEachFrameInOneRead() {
+        StompMessageEncoderDecoder decoder = new StompMessageEncoderDecoder();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes(SEND + SUBSCRIBE));
+
+        assertSend(decoder.decodeNextBytes(buffer));
+        assertEquals(SEND.length(), buffer.position());
+        StompFrame subscribe = decoder.decodeNextBytes(buffer);
+        assertEquals("SUBSCRIBE", subscribe.getCommand());
+        assertEquals("3", subscribe.GetHeader("id"));
+        assertEquals("", subscribe.getBody());
+        assertEquals(buffer.limit(), buffer.position());
+    }
+
+    @Test
+    void keepsTheNextFrameStartedInTheSameRead() {
+        StompMessageEncoderDecoder decoder = new StompMessageEncoderDecoder();
+        String both = SEND + SUBSCRIBE;
+        int split = SEND.length() + 5;
+
+        List<StompFrame> frames = decode(decoder, bytes(both.substring(0, split)));
+        assertEquals(1, frames.size());
+        assertSend(frames.get(0));
+        frames = decode(decoder, bytes(both.substring(split)));
+        assertEquals(1, frames.size());
+        assertEquals("SUBSCRIBE", frames.get(0).getCommand());
+    }
+
+    @Test
+    void skipsHeartBeatsBetweenFrames() {
+        StompMessageEncoderDecoder decoder = new StompMessageEncoderDecoder();
+        List<StompFrame> frames = decode(decoder, bytes("\n\r\n" + SEND + "\n"), bytes("\n" + SUBSCRIBE));
+
+        assertEquals(2, frames.size());
+        assertSend(frames.get(0));
+        assertEquals("SUBSCRIBE", frames.get(1).getCommand());
+    }
+
+    @Test
+    void readsHeadersEndedByCrLf() {
+        StompMessageEncoderDecoder decoder = new StompMessageEncoderDecoder();
+        List<StompFrame> frames = decode(decoder, bytes("SEND\r\ndestination:/g\r\n\r\nbody\u0000"));
+
+        assertEquals("SEND", frames.get(0).getCommand());
+        assertEquals("/g", frames.get(0).GetHeader("destination"));
+        assertEquals("body", frames.get(0).getBody());
+    }
+
+    @Test
+    void growsForAFrameLargerThanItsBuffer() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            body.append((char) ('a' + i % 26));
+        }
+        byte[] frame = bytes("SEND\ndestination:/g\n\n" + body + "\u0000");
+        byte[] first = new byte[700];
+        byte[] second = new byte[frame.length - first.length];
+        System.arraycopy(frame, 0, first, 0, first.length);
+        System.arraycopy(frame, first.length, second, 0, second.length);
+
+        List<StompFrame> frames = decode(new StompMessageEncoderDecoder(), first, second);
+        assertEquals(body.toString(), frames.get(0).getBody());
+    }
+
+    @Test
+    void decodesTheSameFramesByteByByte() {
+        StompMessageEncoderDecoder decoder = new StompMessageEncoderDecoder();
+        List<StompFrame> frames = new ArrayList<>();
+        for (byte b : bytes(SEND + SUBSCRIBE)) {
+            StompFrame frame = decoder.decodeNextByte(b);
+            if (frame != null) {
+                frames.add(frame);
+            }
+        }
+
+        assertEquals(2, frames.size());
+        assertSend(frames.get(0));
+        assertEquals("SUBSCRIBE", frames.get(1).getCommand());
+    }
+
+    @Test
+    void returnsNothingForHeartBeatsAlone() {
+        StompMessageEncoderDecoder decoder = new StompMessageEncoderDecoder();
+        assertNull(decoder.decodeNextBytes(ByteBuffer.wrap(bytes("\n\n"))));
+        assertNull(decoder.decodeNextBytes(ByteBuffer.wrap(bytes("\n\u0000"))));
+        assertSend(decoder.decodeNextBytes(ByteBuffer.wrap(bytes(SEND))));
+    }
+}
@@ -0,0 +1,80 @@
+package bgu.spl.net.srv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import bgu.spl.net.impl.stomp.BroadcastFrame;
+import bgu.spl.net.impl.stomp.StompFrame;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ChannelHistoryTest {
+
+    private final ChannelHistory history = new ChannelHistory();
+
+    private static BroadcastFrame frame(long messageId, int bodyBytes) {
+        return new BroadcastFrame(new StompFrame("SEND", new HashMap<>(), "x".repeat(bodyBytes)), messageId);
+    }
+
+    private static List<Long> ids(List<BroadcastFrame> frames) {
+        List<Long> ids = new ArrayList<>();
+        for (BroadcastFrame frame : frames) {
+            ids.add(frame.getMessageId());
+        }
+        return ids;
+    }
+
+    @Test
+    void evictsTheOldestFramesPastTheCount() {
+        for (long id = 1; id <= 5; id++) {
+            history.append(frame(id, 10), 3, Long.MAX_VALUE);
+        }
+
+        assertEquals(List.of(3L, 4L, 5L), ids(history.last(10)));
+        assertEquals(List.of(4L, 5L), ids(history.last(2)));
+        assertEquals(List.of(), ids(history.last(0)));
+    }
+
+    @Test
+    void evictsTheOldestFramesPastTheBytes() {
+        int size = frame(1, 100).size();
+        for (long id = 1; id <= 5; id++) {
+            history.append(frame(id, 100), 100, 2L * size + size / 2);
+        }
+
+        assertEquals(List.of(4L, 5L), ids(history.last(10)));
+    }
+
+    @Test
+    void keepsNoFrameLargerThanTheBytes() {
+        history.append(frame(1, 10), 100, 1_000);
+        history.append(frame(2, 5_000), 100, 1_000);
+
+        assertEquals(List.of(), ids(history.last(10)));
+    }
+
+    @Test
+    void returnsTheFramesAfterAMessageId() {
+        for (long id = 1; id <= 5; id++) {
+            history.append(frame(id, 10), 3, Long.MAX_VALUE);
+        }
+
+        assertEquals(List.of(4L, 5L), ids(history.since(3)));
+        // the evicted ones are gone, whatever was asked for
+        assertEquals(List.of(3L, 4L, 5L), ids(history.since(0)));
+        assertEquals(List.of(), ids(history.since(5)));
+    }
+
+    @Test
+    void countsItsBytesInTheTotalAndGivesThemBackOnEviction() {
+        long before = ChannelHistory.totalBytes();
+        BroadcastFrame first = frame(1, 50);
+        BroadcastFrame second = frame(2, 70);
+        history.append(first, 1, Long.MAX_VALUE);
+        assertEquals(before + first.size(), ChannelHistory.totalBytes());
+
+        history.append(second, 1, Long.MAX_VALUE);
+        assertEquals(before + second.size(), ChannelHistory.totalBytes());
+    }
+}
@@ -0,0 +1,150 @@
+package bgu.spl.net.srv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bgu.spl.net.impl.stomp.StompFrame;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ConnectionsImplTest {
+
+    /**
+     * Keeps the body of every frame written to it; a closed gate holds the writes, like a full socket.
+     */
+    private static class RecordingHandler implements ConnectionHandler<StompFrame> {
+        final List<String> bodies = new ArrayList<>();
+        volatile CountDownLatch gate = new CountDownLatch(0);
+        final CountDownLatch writing = new CountDownLatch(1);
+
+        @Override
+        public void send(StompFrame msg) {
+            record(msg.getBody());
+        }
+
+        @Override
+        public void sendEncoded(ByteBuffer[] parts) {
+            writing.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            StringBuilder frame = new StringBuilder();
+            for (ByteBuffer part : parts) {
+                frame.append(StandardCharsets.UTF_8.decode(part.duplicate()));
+            }
+            record(frame.substring(frame.indexOf("\n\n") + 2, frame.length() - 1));
+        }
+
+        private synchronized void record(String body) {
+            bodies.add(body);
+        }
+
+        synchronized List<String> bodies() {
+            return new ArrayList<>(bodies);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static StompFrame report(int i) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("destination", "/g");
+        return new StompFrame("SEND", headers, String.valueOf(i));
+    }
+
+    @Test
+    void aReplaySubscribeMissesAndRepeatsNothing() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            ConnectionsImpl<StompFrame> connections = new ConnectionsImpl<>(new SubscriptionRegistry());
+            RecordingHandler publisherSide = new RecordingHandler();
+            RecordingHandler late = new RecordingHandler();
+            connections.addConnection(1, publisherSide);
+            connections.addConnection(2, late);
+            connections.subscribe(1, "/g", "0");
+
+            int count = 2000;
+            Thread publisher = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    connections.send("/g", report(i));
+                }
+            });
+            publisher.start();
+            Thread.sleep(round % 3);
+            // the history keeps fewer messages than were published, the replay takes all of them
+            connections.subscribe(2, "/g", "0", Integer.MAX_VALUE, -1, null);
+            publisher.join();
+
+            assertEquals(count, publisherSide.bodies().size());
+            List<String> received = late.bodies();
+            assertFalse(received.isEmpty(), "round " + round);
+            int first = Integer.parseInt(received.get(0));
+            for (int i = 0; i < received.size(); i++) {
+                assertEquals(String.valueOf(first + i), received.get(i), "round " + round);
+            }
+            assertEquals(count - 1, first + received.size() - 1, "round " + round);
+        }
+    }
+
+    @Test
+    void replaysFromAMessageId() {
+        SubscriptionRegistry registry = new SubscriptionRegistry();
+        ConnectionsImpl<StompFrame> connections = new ConnectionsImpl<>(registry);
+        connections.addConnection(1, new RecordingHandler());
+        connections.subscribe(1, "/g", "0");
+        for (int i = 0; i < 5; i++) {
+            connections.send("/g", report(i));
+        }
+        // message-ids of a channel are its id above a sequence number that starts at 1
+        long channel = registry.getChannels().find("/g").id();
+        long afterSecond = (channel << Destination.SEQUENCE_BITS) | 2;
+
+        RecordingHandler late = new RecordingHandler();
+        connections.addConnection(2, late);
+        connections.subscribe(2, "/g", "1", 0, afterSecond, null);
+        connections.send("/g", report(5));
+
+        assertEquals(List.of("2", "3", "4", "5"), late.bodies());
+    }
+
+    @Test
+    void aFullSocketHoldsOffNeitherPublishersNorReplays() throws Exception {
+        ConnectionsImpl<StompFrame> connections = new ConnectionsImpl<>(new SubscriptionRegistry());
+        RecordingHandler stuck = new RecordingHandler();
+        stuck.gate = new CountDownLatch(1);
+        RecordingHandler other = new RecordingHandler();
+        connections.addConnection(1, stuck);
+        connections.addConnection(2, other);
+        connections.addConnection(3, new RecordingHandler());
+        connections.subscribe(1, "/g", "0");
+        connections.subscribe(2, "/g", "0");
+
+        Thread first = new Thread(() -> connections.send("/g", report(0)));
+        first.start();
+        assertTrue(stuck.writing.await(5, TimeUnit.SECONDS));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            connections.send("/g", report(1));
+            connections.subscribe(3, "/g", "0", 10, -1, null);
+        });
+
+        stuck.gate.countDown();
+        first.join();
+        // the thread that found the channel idle wrote everything queued behind it, in order
+        assertEquals(List.of("0", "1"), stuck.bodies());
+        assertEquals(List.of("0", "1"), other.bodies());
+    }
+}
@@ -0,0 +1,132 @@
+package bgu.spl.net.srv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class IntIntMapTest {
+
+    /**
+     * @return the slot the map probes first for the key, with the map's own hash
+     */
+    private static int homeSlot(int key, int capacity) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (capacity - 1);
+    }
+
+    /**
+     * @return the smallest keys whose home slot in a table of the capacity is the given one
+     */
+    private static int[] keysHomingAt(int slot, int capacity, int count) {
+        int[] keys = new int[count];
+        for (int key = 0, found = 0; found < count; key++) {
+            if (homeSlot(key, capacity) == slot) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    void putGetAndRemove() {
+        IntIntMap map = new IntIntMap();
+        assertEquals(IntIntMap.MISSING, map.put(1, 10));
+        assertEquals(10, map.put(1, 11));
+        map.put(2, 20);
+
+        assertEquals(11, map.get(1));
+        assertEquals(2, map.size());
+        assertEquals(11, map.remove(1));
+        assertEquals(IntIntMap.MISSING, map.get(1));
+        assertEquals(IntIntMap.MISSING, map.remove(1));
+        assertEquals(20, map.get(2));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void removeKeepsEntriesThatWrappedAroundReachable() {
+        // a map for 4 entries has 8 slots, these three sit in slots 7, 0 and 1
+        IntIntMap map = new IntIntMap(4);
+        int[] keys = keysHomingAt(7, 8, 3);
+        for (int key : keys) {
+            map.put(key, key + 1);
+        }
+
+        assertEquals(keys[0] + 1, map.remove(keys[0]));
+        assertEquals(keys[1] + 1, map.get(keys[1]));
+        assertEquals(keys[2] + 1, map.get(keys[2]));
+
+        assertEquals(keys[1] + 1, map.remove(keys[1]));
+        assertEquals(keys[2] + 1, map.get(keys[2]));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void removeDoesNotMoveAnEntryBeforeItsHome() {
+        IntIntMap map = new IntIntMap(4);
+        int[] wrapping = keysHomingAt(7, 8, 2);
+        int atStart = keysHomingAt(1, 8, 1)[0];
+        // slot 7 and 0 hold the wrapping keys, slot 1 the key that lives there
+        map.put(wrapping[0], 1);
+        map.put(wrapping[1], 2);
+        map.put(atStart, 3);
+
+        map.remove(wrapping[0]);
+        assertEquals(2, map.get(wrapping[1]));
+        assertEquals(3, map.get(atStart));
+        map.remove(wrapping[1]);
+        assertEquals(3, map.get(atStart));
+    }
+
+    @Test
+    void conditionalRemove() {
+        IntIntMap map = new IntIntMap();
+        map.put(5, 50);
+
+        assertFalse(map.remove(5, 51));
+        assertTrue(map.containsKey(5));
+        assertTrue(map.remove(5, 50));
+        assertFalse(map.containsKey(5));
+    }
+
+    @Test
+    void rejectsNegativeKeysAndValues() {
+        IntIntMap map = new IntIntMap();
+        assertThrows(IllegalArgumentException.class, () -> map.put(-1, 0));
+        assertThrows(IllegalArgumentException.class, () -> map.put(0, -1));
+        assertEquals(IntIntMap.MISSING, map.get(-1));
+        assertEquals(IntIntMap.MISSING, map.remove(-1));
+    }
+
+    @Test
+    void agreesWithHashMapUnderChurn() {
+        // a small key range keeps the table crowded, so removals shift across clusters and the wraparound
+        IntIntMap map = new IntIntMap(4);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(16);
+        for (int i = 0; i < 200_000; i++) {
+            int key = random.nextInt(64);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.getOrDefault(key, IntIntMap.MISSING), map.remove(key));
+                expected.remove(key);
+            } else {
+                int value = random.nextInt(1000);
+                Integer previous = expected.put(key, value);
+                assertEquals(previous == null ? IntIntMap.MISSING : previous, map.put(key, value));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = 0; key < 64; key++) {
+            assertEquals(expected.getOrDefault(key, IntIntMap.MISSING), map.get(key));
+        }
+        Map<Integer, Integer> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+}
@@ -0,0 +1,97 @@
+package bgu.spl.net.srv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MessageIdLogTest {
+
+    @TempDir
+    Path dir;
+
+    private Path file() {
+        return dir.resolve("message-ids.log");
+    }
+
+    /**
+     * @return the next message-id of the channel, taken under its history lock like a broadcast does
+     */
+    private static long next(Destination destination) {
+        synchronized (destination.history) {
+            return destination.nextMessageId();
+        }
+    }
+
+    @Test
+    void messageIdsContinueAfterARestart() throws IOException {
+        ChannelRegistry first = new SubscriptionRegistry(file()).getChannels();
+        Destination game = first.intern("/germany_spain");
+        long last = 0;
+        for (int i = 0; i < 10; i++) {
+            long id = next(game);
+            assertTrue(id > last);
+            last = id;
+        }
+
+        ChannelRegistry second = new SubscriptionRegistry(file()).getChannels();
+        Destination restored = second.find("/germany_spain");
+        assertEquals(game.id(), restored.id());
+        assertTrue(next(restored) > last);
+    }
+
+    @Test
+    void channelIdsKeepTheirOrderAcrossRestarts() throws IOException {
+        ChannelRegistry first = new SubscriptionRegistry(file()).getChannels();
+        first.intern("/a");
+        first.intern("/b");
+
+        ChannelRegistry second = new SubscriptionRegistry(file()).getChannels();
+        assertEquals(0, second.find("/a").id());
+        assertEquals(1, second.find("/b").id());
+        assertEquals(2, second.intern("/c").id());
+
+        ChannelRegistry third = new SubscriptionRegistry(file()).getChannels();
+        assertEquals(2, third.find("/c").id());
+        assertEquals(3, third.size());
+    }
+
+    @Test
+    void neverHandsOutAnIdTwiceAcrossManyRestarts() throws IOException {
+        long last = 0;
+        for (int run = 0; run < 5; run++) {
+            Destination game = new SubscriptionRegistry(file()).getChannels().intern("/g");
+            // past one reserved block, so a run both uses and reserves again
+            for (int i = 0; i < 5000; i++) {
+                long id = next(game);
+                assertTrue(id > last, "run " + run);
+                last = id;
+            }
+        }
+    }
+
+    @Test
+    void ignoresALineTornByACrash() throws IOException {
+        Destination game = new SubscriptionRegistry(file()).getChannels().intern("/g");
+        long last = next(game);
+        Files.write(file(), "R 0".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        Destination restored = new SubscriptionRegistry(file()).getChannels().find("/g");
+        assertTrue(next(restored) > last);
+    }
+
+    @Test
+    void startsOverWithoutAFile() {
+        Destination game = new SubscriptionRegistry().getChannels().intern("/g");
+        long first = next(game);
+
+        Destination again = new SubscriptionRegistry().getChannels().intern("/g");
+        assertEquals(first, next(again));
+    }
+}
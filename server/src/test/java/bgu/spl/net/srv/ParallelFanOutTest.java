@@ -0,0 +1,117 @@
+package bgu.spl.net.srv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bgu.spl.net.impl.stomp.StompFrame;
+import bgu.spl.net.srv.metrics.ServerMetrics;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ParallelFanOutTest {
+
+    // past stomp.fanout.parallelThreshold as it defaults, whichever test loaded ParallelFanOut first
+    private static final int SUBSCRIBERS = 2100;
+
+    /**
+     * Keeps the body of every frame written to it.
+     */
+    private static class RecordingHandler implements ConnectionHandler<StompFrame> {
+        private final List<String> bodies = new ArrayList<>();
+
+        @Override
+        public void send(StompFrame msg) {
+            record(msg.getBody());
+        }
+
+        @Override
+        public void sendEncoded(ByteBuffer[] parts) {
+            StringBuilder frame = new StringBuilder();
+            for (ByteBuffer part : parts) {
+                frame.append(StandardCharsets.UTF_8.decode(part.duplicate()));
+            }
+            record(frame.substring(frame.indexOf("\n\n") + 2, frame.length() - 1));
+        }
+
+        private synchronized void record(String body) {
+            bodies.add(body);
+        }
+
+        synchronized List<String> bodies() {
+            return new ArrayList<>(bodies);
+        }
+
+        synchronized int count() {
+            return bodies.size();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static StompFrame report(String body) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("destination", "/big");
+        return new StompFrame("SEND", headers, body);
+    }
+
+    @Test
+    void everySubscriberGetsTheMessagesInOneOrder() throws Exception {
+        ConnectionsImpl<StompFrame> connections = new ConnectionsImpl<>(new SubscriptionRegistry());
+        List<RecordingHandler> handlers = new ArrayList<>();
+        for (int id = 0; id < SUBSCRIBERS; id++) {
+            RecordingHandler handler = new RecordingHandler();
+            handlers.add(handler);
+            connections.addConnection(id, handler);
+            connections.subscribe(id, "/big", "0");
+        }
+        long parallelBefore = ServerMetrics.FANOUT_PARALLEL.sum();
+
+        int perPublisher = 40;
+        List<Thread> publishers = new ArrayList<>();
+        for (String name : List.of("a", "b", "c")) {
+            Thread publisher = new Thread(() -> {
+                for (int i = 0; i < perPublisher; i++) {
+                    connections.send("/big", report(name + i));
+                }
+            });
+            publisher.start();
+            publishers.add(publisher);
+        }
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+        int total = 3 * perPublisher;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        for (RecordingHandler handler : handlers) {
+            while (handler.count() < total && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+        }
+
+        assertTrue(ServerMetrics.FANOUT_PARALLEL.sum() - parallelBefore >= total, "the publishes were not split");
+        List<String> order = handlers.get(0).bodies();
+        assertEquals(total, order.size());
+        for (String name : List.of("a", "b", "c")) {
+            int last = -1;
+            for (String body : order) {
+                if (body.startsWith(name)) {
+                    int i = Integer.parseInt(body.substring(1));
+                    assertEquals(last + 1, i, "publisher " + name);
+                    last = i;
+                }
+            }
+            assertEquals(perPublisher - 1, last, "publisher " + name);
+        }
+        for (int id = 1; id < SUBSCRIBERS; id++) {
+            assertEquals(order, handlers.get(id).bodies(), "subscriber " + id);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package bgu.spl.net.srv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TimerWheelTest {
+
+    // 10 ms ticks, 16 slots: one turn is 160 ms
+    private final TimerWheel wheel = new TimerWheel(10, 16, 0);
+    private final List<String> ran = new ArrayList<>();
+
+    private TimerWheel.Timeout timeout(String name) {
+        return new TimerWheel.Timeout(() -> ran.add(name));
+    }
+
+    @Test
+    void runsATimeoutAtTheTickOfItsDeadline() {
+        TimerWheel.Timeout a = timeout("a");
+        wheel.schedule(a, 35);
+
+        wheel.advance(39);
+        assertEquals(List.of(), ran);
+        assertTrue(a.isScheduled());
+        wheel.advance(40);
+        assertEquals(List.of("a"), ran);
+        assertFalse(a.isScheduled());
+        wheel.advance(500);
+        assertEquals(List.of("a"), ran);
+    }
+
+    @Test
+    void cancelledTimeoutsNeverRun() {
+        TimerWheel.Timeout a = timeout("a");
+        TimerWheel.Timeout b = timeout("b");
+        TimerWheel.Timeout c = timeout("c");
+        // all three share a slot, b sits between the others in its list
+        wheel.schedule(a, 50);
+        wheel.schedule(b, 50);
+        wheel.schedule(c, 50);
+
+        wheel.cancel(b);
+        wheel.cancel(b);
+        assertFalse(b.isScheduled());
+        wheel.advance(50);
+        assertEquals(List.of("c", "a"), ran);
+        assertEquals(0, wheel.millisToNextTick(50));
+    }
+
+    @Test
+    void reschedulingMovesTheTimeout() {
+        TimerWheel.Timeout a = timeout("a");
+        wheel.schedule(a, 30);
+        wheel.schedule(a, 90);
+
+        wheel.advance(80);
+        assertEquals(List.of(), ran);
+        wheel.advance(90);
+        assertEquals(List.of("a"), ran);
+        wheel.advance(200);
+        assertEquals(List.of("a"), ran);
+    }
+
+    @Test
+    void aTaskMayScheduleItselfAgain() {
+        long[] now = { 0 };
+        TimerWheel.Timeout[] self = new TimerWheel.Timeout[1];
+        self[0] = new TimerWheel.Timeout(() -> {
+            ran.add("tick@" + now[0]);
+            if (ran.size() < 3) {
+                wheel.schedule(self[0], now[0] + 20);
+            }
+        });
+        wheel.schedule(self[0], 20);
+
+        for (now[0] = 10; now[0] <= 100; now[0] += 10) {
+            wheel.advance(now[0]);
+        }
+        assertEquals(List.of("tick@20", "tick@40", "tick@60"), ran);
+    }
+
+    @Test
+    void aTaskMayCancelAnotherOfTheSameSlot() {
+        TimerWheel.Timeout victim = timeout("victim");
+        TimerWheel.Timeout killer = new TimerWheel.Timeout(() -> {
+            ran.add("killer");
+            wheel.cancel(victim);
+        });
+        wheel.schedule(victim, 40);
+        wheel.schedule(killer, 40);
+
+        wheel.advance(40);
+        assertEquals(List.of("killer"), ran);
+    }
+
+    @Test
+    void aDeadlineBeyondOneTurnRunsAtTheEndOfTheTurn() {
+        TimerWheel.Timeout far = timeout("far");
+        wheel.schedule(far, 10_000);
+
+        wheel.advance(140);
+        assertEquals(List.of(), ran);
+        wheel.advance(150);
+        assertEquals(List.of("far"), ran);
+    }
+
+    @Test
+    void aStallLongerThanATurnRunsEveryTimeoutOnce() {
+        for (int i = 1; i <= 15; i++) {
+            wheel.schedule(timeout("t" + i), i * 10);
+        }
+
+        wheel.advance(5_000);
+        assertEquals(15, ran.size());
+        assertEquals(0, wheel.millisToNextTick(5_000));
+    }
+
+    @Test
+    void waitsOnlyUntilTheNextTickWhileSomethingIsScheduled() {
+        assertEquals(0, wheel.millisToNextTick(0));
+        wheel.schedule(timeout("a"), 100);
+        assertEquals(10, wheel.millisToNextTick(0));
+        assertEquals(3, wheel.millisToNextTick(7));
+        wheel.advance(10);
+        assertEquals(10, wheel.millisToNextTick(10));
+    }
+}